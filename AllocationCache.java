@@ -0,0 +1,249 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A size-bounded cache of the answers of Allocator.allocate, which reuses an
+ * earlier answer whenever the same question is asked again.
+ * </p>
+ *
+ * <p>
+ * Two questions are the same if they have the same events and the same venues,
+ * in any order. Each question is keyed by an order-independent fingerprint of
+ * its event and venue multisets, computed from the hash codes of the events
+ * and venues alone (so it costs one pass over them), and confirmed by
+ * comparing the multisets themselves. Answers that there is no safe
+ * allocation (null) are cached as well.
+ * </p>
+ *
+ * <p>
+ * When the cache is full, the least recently used answer is evicted. The
+ * cache is safe to share between threads: lookups and updates are
+ * synchronized, but the allocations of questions that miss are computed
+ * outside the lock. The numbers of hits and misses are recorded.
+ * </p>
+ */
+public class AllocationCache {
+
+    // the default maximum number of answers that are cached
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    // the maximum number of answers that are cached
+    private final int maxEntries;
+    // the cached answers, least recently used first
+    private final LinkedHashMap<Key, Map<Event, Venue>> answers;
+    // the numbers of lookups that were and were not answered from the cache,
+    // and the number of answers evicted
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /*
+     * invariant: answers.size() <= maxEntries && hits >= 0 && misses >= 0 &&
+     * evictions >= 0
+     */
+
+    /**
+     * Creates an empty cache that holds up to DEFAULT_MAX_ENTRIES answers.
+     */
+    public AllocationCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates an empty cache that holds up to maxEntries answers.
+     *
+     * @param maxEntries
+     *            the maximum number of answers to cache
+     * @throws IllegalArgumentException
+     *             if maxEntries is negative
+     */
+    public AllocationCache(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of entries cannot be negative.");
+        }
+        this.maxEntries = maxEntries;
+        answers = new LinkedHashMap<Key, Map<Event, Venue>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, Map<Event, Venue>> eldest) {
+                if (size() > AllocationCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the same answer as Allocator.allocate(events, venues), reusing
+     * an earlier answer for the same events and venues (in any order) if one
+     * is cached.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise. The
+     *         allocation returned can be modified without affecting the
+     *         cache, and events and venues are not modified.
+     */
+    public Map<Event, Venue> allocate(List<Event> events, List<Venue> venues) {
+        Key key = new Key(events, venues);
+        synchronized (this) {
+            if (answers.containsKey(key)) {
+                hits++;
+                return copy(answers.get(key));
+            }
+            misses++;
+        }
+        Map<Event, Venue> allocation = Allocator.allocate(events,
+                new ArrayList<>(venues));
+        synchronized (this) {
+            if (maxEntries > 0) {
+                answers.put(key, copy(allocation));
+            }
+        }
+        return allocation;
+    }
+
+    /**
+     * Returns an order-independent fingerprint of the given events and
+     * venues: permuting either list does not change it, and lists with the
+     * same elements (the same number of times each) have the same
+     * fingerprint.
+     *
+     * @param events
+     *            the events
+     * @param venues
+     *            the venues
+     * @return the fingerprint of the multisets of events and venues
+     * @throws NullPointerException
+     *             if events or venues is null, or if either contains null
+     */
+    public static long fingerprint(List<Event> events, List<Venue> venues) {
+        long eventSum = 0; // the sum of the mixed hashes of the events
+        for (Event event : events) {
+            eventSum += mix(event.hashCode());
+        }
+        long venueSum = 0; // the sum of the mixed hashes of the venues
+        for (Venue venue : venues) {
+            venueSum += mix(venue.hashCode());
+        }
+        return mix(eventSum) * 31 + venueSum;
+    }
+
+    /**
+     * Returns the number of calls to allocate that were answered from the
+     * cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to allocate that were not answered from the
+     * cache.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of answers that have been evicted to make room for
+     * newer ones.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of answers in the cache.
+     *
+     * @return the number of cached answers
+     */
+    public synchronized int size() {
+        return answers.size();
+    }
+
+    /**
+     * Removes every answer from the cache. The hit and miss counts are kept.
+     */
+    public synchronized void clear() {
+        answers.clear();
+    }
+
+    /**
+     * Returns a copy of the given allocation, or null if it is null.
+     */
+    private static Map<Event, Venue> copy(Map<Event, Venue> allocation) {
+        return allocation == null ? null : new HashMap<>(allocation);
+    }
+
+    /**
+     * Returns a well-mixed 64-bit value of the given one (the finaliser of
+     * the SplitMix64 generator), so that sums of mixed hashes rarely collide.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * A question to the allocator: multisets of events and venues.
+     */
+    private static class Key {
+
+        // the number of times each event and venue occurs
+        private final Map<Event, Integer> events;
+        private final Map<Venue, Integer> venues;
+        private final long fingerprint;
+
+        Key(List<Event> events, List<Venue> venues) {
+            this.events = counts(events);
+            this.venues = counts(venues);
+            fingerprint = fingerprint(events, venues);
+        }
+
+        /**
+         * Returns the number of times each element of the given list occurs
+         * in it.
+         */
+        private static <T> Map<T, Integer> counts(List<T> list) {
+            Map<T, Integer> result = new HashMap<>();
+            for (T element : list) {
+                Integer count = result.get(element);
+                result.put(element, count == null ? 1 : count + 1);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object; // the key to compare
+            return fingerprint == other.fingerprint && events.equals(
+                    other.events) && venues.equals(other.venues);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fingerprint ^ (fingerprint >>> 32));
+        }
+    }
+
+}
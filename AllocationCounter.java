@@ -0,0 +1,286 @@
+package planner;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * <p>
+ * Counts the safe allocations of the events of a compiled problem to its
+ * venues, without building any of them.
+ * </p>
+ *
+ * <p>
+ * Two reductions keep the count cheap. First, events of the same size are
+ * interchangeable, so only allocations in which the events of each size are
+ * placed at venues with increasing ids are walked, and the count is multiplied
+ * by the number of ways of permuting the events of each size (m! for m events
+ * of the same size). Second, the number of ways of completing a partial
+ * allocation only depends on which events are left, which venues are free and
+ * the residual capacity of each corridor, so the count for each such state is
+ * memoised (up to a maximum number of states). The allocations are walked on
+ * an explicit stack of frames, one per placed event, so the number of events
+ * is not limited by the call stack.
+ * </p>
+ */
+public class AllocationCounter {
+
+    // the default maximum number of states that are memoised
+    public static final int DEFAULT_MAX_MEMO_ENTRIES = 1 << 20;
+
+    // the problem whose safe allocations are counted
+    private final CompiledProblem problem;
+    // the maximum number of states that are memoised
+    private final int maxMemoEntries;
+    // the events in the order they are placed: grouped by size, largest first
+    private final int[] events;
+    // the number of completions of each state that has been counted
+    private final Map<State, BigInteger> memo;
+
+    // used[v / 64] has bit v % 64 set iff venue v is used
+    private final long[] used;
+    // residual[c] is the capacity left on corridor c
+    private final int[] residual;
+    // frame d of the stack places events[d]: at venue[d] last, and has
+    // counted total[d] completions of state[d] so far
+    private final int[] venue;
+    private final BigInteger[] total;
+    private final State[] state;
+
+    /**
+     * Creates a counter for the safe allocations of the given problem, which
+     * memoises up to DEFAULT_MAX_MEMO_ENTRIES states.
+     *
+     * @param problem
+     *            the problem whose safe allocations are counted
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public AllocationCounter(CompiledProblem problem) {
+        this(problem, DEFAULT_MAX_MEMO_ENTRIES);
+    }
+
+    /**
+     * Creates a counter for the safe allocations of the given problem, which
+     * memoises up to maxMemoEntries states.
+     *
+     * @param problem
+     *            the problem whose safe allocations are counted
+     * @param maxMemoEntries
+     *            the maximum number of states to memoise
+     * @throws NullPointerException
+     *             if problem is null
+     * @throws IllegalArgumentException
+     *             if maxMemoEntries is negative
+     */
+    public AllocationCounter(CompiledProblem problem, int maxMemoEntries) {
+        if (maxMemoEntries < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of memo entries cannot be negative.");
+        }
+        this.problem = problem;
+        this.maxMemoEntries = maxMemoEntries;
+        events = problem.eventsBySizeDescending();
+        memo = new HashMap<>();
+        used = new long[CompiledProblem.words(problem.getVenueCount())];
+        residual = problem.corridorCapacity.clone();
+        venue = new int[events.length];
+        total = new BigInteger[events.length];
+        state = new State[events.length];
+    }
+
+    /**
+     * Returns the number of safe allocations of the events to the venues.
+     *
+     * @return the number of safe allocations (which is one if there are no
+     *         events)
+     */
+    public BigInteger count() {
+        if (!new CapacityMatching(problem).isComplete()) {
+            return BigInteger.ZERO;
+        }
+        memo.clear();
+        BigInteger canonical = count(0, 0);
+        // multiply by the permutations of the events of each size
+        BigInteger result = canonical;
+        int run = 0; // the number of consecutive events of the same size
+        for (int i = 0; i < events.length; i++) {
+            if (i > 0 && problem.eventSizeClass[events[i]]
+                    == problem.eventSizeClass[events[i - 1]]) {
+                run++;
+                result = result.multiply(BigInteger.valueOf(run));
+            } else {
+                run = 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of memoised states after the last call to count.
+     *
+     * @return the number of memoised states
+     */
+    public int getMemoSize() {
+        return memo.size();
+    }
+
+    /**
+     * Returns the number of safe ways of placing events[depth ..] at the free
+     * venues, given that events[depth] may only be placed at venues with ids
+     * at least first, by walking them on the explicit stack from frame depth
+     * up.
+     */
+    private BigInteger count(int depth, int first) {
+        BigInteger known = open(depth, first);
+        if (known != null) {
+            return known;
+        }
+        int bottom = depth; // the frame whose count is returned
+        while (true) {
+            int event = events[depth];
+            int next = venue[depth] + 1; // the next venue to try
+            while (next < problem.getVenueCount() && !fits(event, next)) {
+                next++;
+            }
+            if (next < problem.getVenueCount()) {
+                venue[depth] = next;
+                apply(event, next, -1);
+                // whether the next event has the same size as this one
+                boolean sameClass = problem.eventSizeClass[events[depth + 1]]
+                        == problem.eventSizeClass[event];
+                known = open(depth + 1, sameClass ? next + 1 : 0);
+                if (known == null) {
+                    depth++;
+                } else {
+                    apply(event, next, 1);
+                    total[depth] = total[depth].add(known);
+                }
+                continue;
+            }
+            // every venue of frame depth has been tried, so pop it
+            known = total[depth];
+            if (memo.size() < maxMemoEntries) {
+                memo.put(state[depth], known);
+            }
+            if (depth == bottom) {
+                return known;
+            }
+            depth--;
+            apply(events[depth], venue[depth], 1);
+            total[depth] = total[depth].add(known);
+        }
+    }
+
+    /**
+     * Returns the number of safe ways of placing events[depth ..] at the free
+     * venues, given that events[depth] may only be placed at venues with ids
+     * at least first, if it is known without pushing a frame: when there are
+     * no events left, when the state is memoised, or when events[depth] is
+     * the last event, whose venues are just counted. Otherwise pushes frame
+     * depth and returns null.
+     */
+    private BigInteger open(int depth, int first) {
+        if (depth == events.length) {
+            return BigInteger.ONE;
+        }
+        State key = new State(depth, first, used.clone(), residual.clone());
+        BigInteger known = memo.get(key);
+        if (known != null) {
+            return known;
+        }
+        int event = events[depth];
+        if (depth == events.length - 1) {
+            long leaves = 0; // the venues the last event fits at
+            for (int v = first; v < problem.getVenueCount(); v++) {
+                if (fits(event, v)) {
+                    leaves++;
+                }
+            }
+            known = BigInteger.valueOf(leaves);
+            if (memo.size() < maxMemoEntries) {
+                memo.put(key, known);
+            }
+            return known;
+        }
+        state[depth] = key;
+        total[depth] = BigInteger.ZERO;
+        venue[depth] = first - 1;
+        return null;
+    }
+
+    /**
+     * Returns true if the given venue is free, can host the given event and
+     * the event's traffic there fits under the residual corridor capacities.
+     */
+    private boolean fits(int event, int venue) {
+        if ((used[venue >>> 6] & (1L << venue)) != 0) {
+            return false;
+        }
+        int[] load = problem.loads(event, venue);
+        if (load == null) {
+            return false;
+        }
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            if (load[k] > residual[corridors[k]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places (sign == -1) or unplaces (sign == 1) the given event at the given
+     * venue.
+     */
+    private void apply(int event, int venue, int sign) {
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            residual[corridors[k]] += sign * load[k];
+        }
+        used[venue >>> 6] ^= 1L << venue;
+    }
+
+    /**
+     * A state of the count: the number of events placed, the lowest venue the
+     * next event may be placed at, the used venues and the residual capacity
+     * of each corridor.
+     */
+    private static class State {
+
+        private final int depth;
+        private final int first;
+        private final long[] used;
+        private final int[] residual;
+        private final int hash;
+
+        State(int depth, int first, long[] used, int[] residual) {
+            this.depth = depth;
+            this.first = first;
+            this.used = used;
+            this.residual = residual;
+            int result = 31 * depth + first;
+            result = 31 * result + Arrays.hashCode(used);
+            result = 31 * result + Arrays.hashCode(residual);
+            hash = result;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof State)) {
+                return false;
+            }
+            State other = (State) object; // the state to compare
+            return depth == other.depth && first == other.first && Arrays
+                    .equals(used, other.used) && Arrays.equals(residual,
+                            other.residual);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
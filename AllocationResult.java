@@ -0,0 +1,188 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable record of the outcome of a search for a safe allocation of
+ * events to venues that may have been stopped early.
+ * </p>
+ *
+ * <p>
+ * The search either found a safe allocation, proved that there is none, or
+ * ran out of time (or was cancelled) before it could do either. In every case
+ * the result records how many nodes of the search tree were explored and the
+ * greatest number of events that were placed at once.
+ * </p>
+ *
+ * <p>
+ * An optimising search can be stopped after it has found an allocation but
+ * before it has shown that no allocation is better. Its result is then FOUND
+ * with the best allocation found so far, and records that it was stopped.
+ * </p>
+ */
+public class AllocationResult {
+
+    /**
+     * The possible outcomes of a search.
+     */
+    public enum Status {
+        /** A safe allocation was found. */
+        FOUND,
+        /** The search proved that there is no safe allocation. */
+        INFEASIBLE,
+        /** The search was stopped before it found or ruled out one. */
+        UNKNOWN
+    }
+
+    // the outcome of the search
+    private final Status status;
+    // the safe allocation found, or null
+    private final Map<Event, Venue> allocation;
+    // the number of nodes of the search tree that were explored
+    private final long nodesExplored;
+    // the greatest number of events that were placed at once
+    private final int maxDepth;
+    // whether the search was stopped before it finished
+    private final boolean stopped;
+
+    /*
+     * invariant: status != null && (allocation != null iff status == FOUND)
+     * && nodesExplored >= 0 && maxDepth >= 0 && (status != UNKNOWN ||
+     * stopped) && (status != INFEASIBLE || !stopped)
+     */
+
+    /**
+     * Creates a new result of a search that was stopped iff status is
+     * UNKNOWN.
+     *
+     * @param status
+     *            the outcome of the search
+     * @param allocation
+     *            the safe allocation found, which must be null unless status
+     *            is FOUND
+     * @param nodesExplored
+     *            the number of nodes of the search tree that were explored
+     * @param maxDepth
+     *            the greatest number of events that were placed at once
+     * @throws NullPointerException
+     *             if status is null, or if status is FOUND and allocation is
+     *             null
+     * @throws IllegalArgumentException
+     *             if status is not FOUND and allocation is not null, or if
+     *             nodesExplored or maxDepth is negative
+     */
+    public AllocationResult(Status status, Map<Event, Venue> allocation,
+            long nodesExplored, int maxDepth) {
+        this(status, allocation, nodesExplored, maxDepth,
+                status == Status.UNKNOWN);
+    }
+
+    /**
+     * Creates a new result.
+     *
+     * @param status
+     *            the outcome of the search
+     * @param allocation
+     *            the safe allocation found, which must be null unless status
+     *            is FOUND
+     * @param nodesExplored
+     *            the number of nodes of the search tree that were explored
+     * @param maxDepth
+     *            the greatest number of events that were placed at once
+     * @param stopped
+     *            whether the search was stopped before it finished
+     * @throws NullPointerException
+     *             if status is null, or if status is FOUND and allocation is
+     *             null
+     * @throws IllegalArgumentException
+     *             if status is not FOUND and allocation is not null, if
+     *             nodesExplored or maxDepth is negative, or if status is
+     *             UNKNOWN and stopped is false, or INFEASIBLE and stopped is
+     *             true
+     */
+    public AllocationResult(Status status, Map<Event, Venue> allocation,
+            long nodesExplored, int maxDepth, boolean stopped) {
+        if (status == null) {
+            throw new NullPointerException("The status cannot be null.");
+        }
+        if (status == Status.FOUND && allocation == null) {
+            throw new NullPointerException(
+                    "A found result must have an allocation.");
+        }
+        if (status != Status.FOUND && allocation != null) {
+            throw new IllegalArgumentException(
+                    "Only a found result can have an allocation.");
+        }
+        if (nodesExplored < 0 || maxDepth < 0) {
+            throw new IllegalArgumentException(
+                    "The search statistics cannot be negative.");
+        }
+        if (status != Status.FOUND && stopped != (status == Status.UNKNOWN)) {
+            throw new IllegalArgumentException(
+                    "Only a found result may or may not have been stopped.");
+        }
+        this.status = status;
+        this.allocation = allocation == null ? null : Collections
+                .unmodifiableMap(new HashMap<>(allocation));
+        this.nodesExplored = nodesExplored;
+        this.maxDepth = maxDepth;
+        this.stopped = stopped;
+    }
+
+    /**
+     * Returns the outcome of the search.
+     *
+     * @return the outcome of the search
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the safe allocation that was found, or null if the status is
+     * not FOUND.
+     *
+     * @return an unmodifiable view of the safe allocation found, or null
+     */
+    public Map<Event, Venue> getAllocation() {
+        return allocation;
+    }
+
+    /**
+     * Returns the number of nodes of the search tree that were explored.
+     *
+     * @return the number of nodes explored
+     */
+    public long getNodesExplored() {
+        return nodesExplored;
+    }
+
+    /**
+     * Returns the greatest number of events that were placed at once during
+     * the search.
+     *
+     * @return the depth reached by the search
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns true if the search was stopped before it finished. A FOUND
+     * result of an optimising search that was stopped holds the best
+     * allocation found so far, which may not be optimal.
+     *
+     * @return true iff the search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public String toString() {
+        return status + (stopped ? " (stopped)" : "") + " after "
+                + nodesExplored + " nodes (depth " + maxDepth + ")";
+    }
+
+}
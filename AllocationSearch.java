@@ -0,0 +1,1503 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A mutable backtracking search for a safe allocation of the events of a
+ * compiled problem to its venues, that works on primitive ids only.
+ * </p>
+ *
+ * <p>
+ * The search state is a safe partial allocation of the events (an int[] of the
+ * venue of each event), together with a long[] bitset of the venues that it
+ * leaves free and the capacity that it leaves on each corridor. Events are
+ * placed one at a time and unplaced in the reverse order, so a search can be
+ * started from any safe partial allocation. Free venues are scanned a word
+ * (64 venues) at a time, and nothing is allocated per node, so the search
+ * copes with thousands of venues. The search tree is walked on an explicit
+ * stack instead of by recursion, so the number of events is not limited by
+ * the size of the thread's stack either.
+ * </p>
+ *
+ * <p>
+ * The venues of each node are generated lazily. When they are tried in the
+ * order they were given in, a node only keeps a cursor into the free venues;
+ * otherwise it keeps the best few, and selects the next best ones (twice as
+ * many each time) once those have been tried. So the stack holds a few
+ * entries per placed event, and not one per venue, until the search has to
+ * try many venues of the same event. When the next event is chosen by a
+ * fixed order, or by the size of its domain under forward checking, the
+ * unplaced events are kept in a tree ordered by their scores, so choosing
+ * one does not scan every event.
+ * </p>
+ *
+ * <p>
+ * Which event is placed next, and the order in which its venues are tried, is
+ * decided by pluggable EventOrder and VenueOrder heuristics. By default events
+ * and venues are tried in the order they were given in.
+ * </p>
+ *
+ * <p>
+ * Symmetry breaking can be turned on to stop the search from exploring
+ * permutations of interchangeable venues and events (see
+ * CompiledProblem.getVenueClass and CompiledProblem.getEventClass). When it is
+ * on, only the lowest free venue of each venue class is tried for an event,
+ * and events of the same class must be placed at venues with increasing ids in
+ * the order they are placed. Every safe allocation is still reachable up to a
+ * permutation of equivalent venues and events, so symmetry breaking never
+ * changes whether a safe allocation is found.
+ * </p>
+ *
+ * <p>
+ * Forward checking can also be turned on. The search then keeps a live domain
+ * for each unplaced event: the venues it could still be placed at, given the
+ * venues already used and the residual capacity of each corridor. Each
+ * placement removes the venues that no longer fit from the other events'
+ * domains, and is rejected straight away if it leaves some unplaced event with
+ * an empty domain.
+ * </p>
+ *
+ * <p>
+ * Dominance pruning can be turned on as well, given the dominance order of
+ * the venues (see VenueDominance). Some safe allocation, if there is one, uses
+ * every venue that dominates a venue it uses, so the search rejects any
+ * placement that leaves more such venues free than there are events left to
+ * place.
+ * </p>
+ *
+ * <p>
+ * Events can also be made optional, for a search for an allocation of some of
+ * the events. Each event is then tried at each of its venues and then left
+ * out, and a node at which every event is placed or left out is a solution.
+ * When symmetry breaking is on, once an event is left out, the later events
+ * of its class are left out too.
+ * </p>
+ *
+ * <p>
+ * An optimising search can lower the traffic that each corridor may carry
+ * below its capacity, and give the search a SearchBound that every node must
+ * pass. Placements that would take a corridor over its limit are not tried,
+ * and once a limit is lowered below the traffic already on the corridor, the
+ * search backtracks until it is within the limit again. After solve has found
+ * an allocation, solveNext resumes the search from it, so a branch-and-bound
+ * search can tighten the limits each time it finds a better allocation and
+ * carry on without starting again.
+ * </p>
+ *
+ * <p>
+ * A search can be given a deadline and a cancellation token. It gives up as
+ * soon as either is reached, and isStopped() then tells a search that gave up
+ * apart from one that proved there is no safe allocation. The search counts
+ * the nodes it explores and the greatest depth it reaches.
+ * </p>
+ */
+public class AllocationSearch {
+
+    // the problem being searched
+    private final CompiledProblem problem;
+    // assignment[e] is the venue that event e is placed at, or -1
+    private final int[] assignment;
+    // bit v % 64 of free[v / 64] is set iff venue v is not used by the
+    // partial allocation
+    private final long[] free;
+    // the number of venues
+    private final int venueCount;
+    // residual[c] is the capacity left on corridor c by the partial
+    // allocation, under its limit
+    private final int[] residual;
+    // limit[c] is the greatest traffic that corridor c may carry, which is
+    // its capacity unless it has been lowered, and overdrawn is the number of
+    // corridors c with residual[c] < 0
+    private final int[] limit;
+    private int overdrawn;
+    // order[i] is the i-th event placed or left out, for 0 <= i < decided
+    private final int[] order;
+    // the number of events placed or left out, and the number left out
+    private int decided;
+    private int leftOutCount;
+    // leftOut[e] is true iff event e is left out
+    private final boolean[] leftOut;
+    // placedCount[k * venueClassCount + c] is the number of placed events of
+    // class k that are placed at venues of class c
+    private final int[] placedCount;
+    // classPlaced[k] is the number of placed events of class k
+    private final int[] classPlaced;
+    // the heuristics that choose the next event and order its venues
+    private EventOrder eventOrder = EventOrder.INPUT_ORDER;
+    private VenueOrder venueOrder = VenueOrder.INPUT_ORDER;
+    // whether permutations of equivalent venues and events are skipped
+    private boolean symmetryBreaking;
+    // whether the domains of the unplaced events are maintained
+    private boolean forwardChecking;
+    // whether events may be left out
+    private boolean optional;
+    // when set, the search gives up once this token is cancelled
+    private CancellationToken token;
+    // when hasDeadline, the search gives up once System.nanoTime() passes
+    // deadline
+    private boolean hasDeadline;
+    private long deadline;
+    // when set, the bound that every node of the search must pass
+    private SearchBound bound;
+    // whether the last call to solve gave up
+    private boolean stopped;
+    // the number of frames on the stack, and whether they are those of the
+    // allocation found by the last call to solve or solveNext
+    private int top;
+    private boolean resumable;
+    // the number of nodes explored and the greatest number of events placed
+    private long nodes;
+    private int maxDepth;
+
+    // symmetryClass[e] is the class of event e among which symmetry breaking
+    // treats events as interchangeable, which is its size class unless the
+    // classes have been refined, and lastVenue[k] is the highest venue that
+    // an event of symmetry class k is placed at (or the number of venues once
+    // one is left out)
+    private int[] symmetryClass;
+    private int[] lastVenue;
+    // previousLast[i] is the value lastVenue had before order[i] was placed or
+    // left out
+    private final int[] previousLast;
+    // seen[k] == stamp iff venue class k already has a candidate at the node
+    // whose candidates are being generated, which is at position slot[k]
+    private final int[] seen;
+    private final int[] slot;
+    private int stamp;
+
+    // when forward checking, domain[e][0 .. domainSize[e] - 1] are the venues
+    // that unplaced event e could currently be placed at
+    private int[][] domain;
+    private int[] domainSize;
+    // the (event, previous domain size) pairs of each domain reduction, so
+    // that the reductions can be undone when the search backtracks
+    private int[] trail;
+    private int trailLength;
+    // trailMark[i] is the length of the trail before order[i] was placed or
+    // left out
+    private final int[] trailMark;
+
+    // when set, the dominance order used to prune the search
+    private VenueDominance dominance;
+    // requiredBy[v] is the number of used venues that venue v dominates, and
+    // requiredFree is the number of free venues v with requiredBy[v] > 0
+    private int[] requiredBy;
+    private int requiredFree;
+
+    // the number of candidates a frame selects first, when they are sorted
+    private static final int FIRST_CHUNK = 16;
+
+    // the explicit stack of the search: frame i places frameEvent[i] at each
+    // of its candidates in turn. When the venue order is INPUT_ORDER, the
+    // candidates are generated in order of id and frameCursor[i] is the
+    // lowest venue that has not been considered. Otherwise they are selected
+    // in chunks: the keys (see candidates) stack[frameStart[i] ..
+    // frameStart[i] + frameCount[i] - 1] are the current chunk, of which the
+    // first frameCursor[i] have been tried, frameAfter[i] is the last key in
+    // it, and frameChunk[i] is the size of the next chunk, or 0 if there are
+    // no candidates after this chunk. frameLeftOut[i] is true once the
+    // event has been left out, which is its last choice when events are
+    // optional
+    private final int[] frameEvent;
+    private final int[] frameStart;
+    private final int[] frameCount;
+    private final int[] frameCursor;
+    private final long[] frameAfter;
+    private final int[] frameChunk;
+    private final boolean[] frameLeftOut;
+    private long[] stack;
+
+    // when indexed, eventTree is a tournament tree over the events: leaf
+    // eventTree[n + e] (for n events) is the key of event e, which is its
+    // score in its high 32 bits and its id in its low 32 bits, or
+    // Long.MAX_VALUE if it is decided, and every other node holds the least
+    // key of its two children
+    private boolean indexed;
+    private long[] eventTree;
+
+    /*
+     * invariant: order[0 .. decided - 1] are the placed events, each placed
+     * at a distinct venue that can host it, and the leftOutCount events that
+     * are left out, the remaining events have assignment -1, residual[c] is
+     * limit[c] less the traffic placed events generate on corridor c, and 0
+     * <= limit[c] <= the capacity of corridor c
+     */
+
+    /**
+     * Creates a new search for the given problem, in which no event is placed.
+     *
+     * @param problem
+     *            the problem to search
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public AllocationSearch(CompiledProblem problem) {
+        this.problem = problem;
+        assignment = new int[problem.getEventCount()];
+        Arrays.fill(assignment, -1);
+        venueCount = problem.getVenueCount();
+        free = new long[CompiledProblem.words(venueCount)];
+        for (int v = 0; v < venueCount; v++) {
+            free[v >>> 6] |= 1L << v;
+        }
+        residual = problem.corridorCapacity.clone();
+        limit = problem.corridorCapacity.clone();
+        order = new int[problem.getEventCount()];
+        decided = 0;
+        leftOut = new boolean[problem.getEventCount()];
+        placedCount = new int[problem.sizes.length * problem.venueClassCount];
+        classPlaced = new int[problem.sizes.length];
+        symmetryClass = problem.eventSizeClass;
+        lastVenue = new int[problem.sizes.length];
+        Arrays.fill(lastVenue, -1);
+        previousLast = new int[problem.getEventCount()];
+        seen = new int[problem.venueClassCount];
+        slot = new int[problem.venueClassCount];
+        trailMark = new int[problem.getEventCount()];
+        frameEvent = new int[problem.getEventCount()];
+        frameStart = new int[problem.getEventCount()];
+        frameCount = new int[problem.getEventCount()];
+        frameCursor = new int[problem.getEventCount()];
+        frameAfter = new long[problem.getEventCount()];
+        frameChunk = new int[problem.getEventCount()];
+        frameLeftOut = new boolean[problem.getEventCount()];
+        stack = new long[Math.max(venueCount, 1)];
+        eventTree = new long[2 * Math.max(problem.getEventCount(), 1)];
+        reindex();
+    }
+
+    /**
+     * Creates a new search with the same problem, partial allocation and
+     * heuristics as the given search. Future changes to either search do not
+     * affect the other.
+     *
+     * @param other
+     *            the search to copy
+     * @throws NullPointerException
+     *             if other is null
+     */
+    public AllocationSearch(AllocationSearch other) {
+        problem = other.problem;
+        assignment = other.assignment.clone();
+        venueCount = other.venueCount;
+        free = other.free.clone();
+        residual = other.residual.clone();
+        limit = other.limit.clone();
+        overdrawn = other.overdrawn;
+        order = other.order.clone();
+        decided = other.decided;
+        leftOutCount = other.leftOutCount;
+        leftOut = other.leftOut.clone();
+        optional = other.optional;
+        placedCount = other.placedCount.clone();
+        classPlaced = other.classPlaced.clone();
+        eventOrder = other.eventOrder;
+        venueOrder = other.venueOrder;
+        symmetryBreaking = other.symmetryBreaking;
+        bound = other.bound;
+        token = other.token;
+        hasDeadline = other.hasDeadline;
+        deadline = other.deadline;
+        symmetryClass = other.symmetryClass;
+        lastVenue = other.lastVenue.clone();
+        previousLast = other.previousLast.clone();
+        seen = new int[problem.venueClassCount];
+        slot = new int[problem.venueClassCount];
+        forwardChecking = other.forwardChecking;
+        if (forwardChecking) {
+            domain = new int[other.domain.length][];
+            for (int e = 0; e < domain.length; e++) {
+                domain[e] = other.domain[e].clone();
+            }
+            domainSize = other.domainSize.clone();
+            trail = other.trail.clone();
+            trailLength = other.trailLength;
+        }
+        trailMark = other.trailMark.clone();
+        dominance = other.dominance;
+        if (dominance != null) {
+            requiredBy = other.requiredBy.clone();
+            requiredFree = other.requiredFree;
+        }
+        frameEvent = new int[problem.getEventCount()];
+        frameStart = new int[problem.getEventCount()];
+        frameCount = new int[problem.getEventCount()];
+        frameCursor = new int[problem.getEventCount()];
+        frameAfter = new long[problem.getEventCount()];
+        frameChunk = new int[problem.getEventCount()];
+        frameLeftOut = new boolean[problem.getEventCount()];
+        stack = new long[Math.max(venueCount, 1)];
+        indexed = other.indexed;
+        eventTree = other.eventTree.clone();
+    }
+
+    /**
+     * Returns the problem being searched.
+     *
+     * @return the problem being searched
+     */
+    public CompiledProblem getProblem() {
+        return problem;
+    }
+
+    /**
+     * Sets the heuristic that chooses which event is placed next.
+     *
+     * @param eventOrder
+     *            the heuristic to use
+     * @throws NullPointerException
+     *             if eventOrder is null
+     */
+    public void setEventOrder(EventOrder eventOrder) {
+        if (eventOrder == null) {
+            throw new NullPointerException("The event order cannot be null.");
+        }
+        this.eventOrder = eventOrder;
+        reindex();
+    }
+
+    /**
+     * Sets the heuristic that orders the venues an event is tried at.
+     *
+     * @param venueOrder
+     *            the heuristic to use
+     * @throws NullPointerException
+     *             if venueOrder is null
+     */
+    public void setVenueOrder(VenueOrder venueOrder) {
+        if (venueOrder == null) {
+            throw new NullPointerException("The venue order cannot be null.");
+        }
+        this.venueOrder = venueOrder;
+    }
+
+    /**
+     * Turns symmetry breaking between equivalent venues and events on or off.
+     * It is off by default.
+     *
+     * @param symmetryBreaking
+     *            whether to skip permutations of equivalent venues and events
+     */
+    public void setSymmetryBreaking(boolean symmetryBreaking) {
+        this.symmetryBreaking = symmetryBreaking;
+    }
+
+    /**
+     * Refines the classes of events that symmetry breaking treats as
+     * interchangeable: events are then interchangeable iff they have the same
+     * size and the same given class. A search that tells events of the same
+     * size apart, say by weight, can refine the classes so that the events it
+     * places first are not pushed to higher venues by the events it places
+     * later. The classes can only be changed while no event is placed or left
+     * out.
+     *
+     * @param classes
+     *            the class of each event, indexed by event id
+     * @throws IllegalStateException
+     *             if some event is placed or left out
+     * @throws IllegalArgumentException
+     *             if classes does not have one element for each event
+     */
+    public void setSymmetryClasses(int[] classes) {
+        if (decided > 0) {
+            throw new IllegalStateException(
+                    "The symmetry classes cannot be changed during a search.");
+        }
+        if (classes.length != assignment.length) {
+            throw new IllegalArgumentException(
+                    "There must be one class for each event.");
+        }
+        // number the distinct (size class, class) pairs in order of
+        // appearance
+        Map<List<Integer>, Integer> ids = new HashMap<>();
+        symmetryClass = new int[assignment.length];
+        for (int e = 0; e < assignment.length; e++) {
+            List<Integer> key = Arrays.asList(problem.eventSizeClass[e],
+                    classes[e]);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            symmetryClass[e] = id;
+        }
+        lastVenue = new int[Math.max(ids.size(), 1)];
+        Arrays.fill(lastVenue, -1);
+    }
+
+    /**
+     * Turns forward checking on or off. It is off by default, can only be
+     * changed while no event is placed, and cannot be turned on when events
+     * are optional.
+     *
+     * @param forwardChecking
+     *            whether to maintain the domains of the unplaced events
+     * @throws IllegalStateException
+     *             if some event is placed, or if events are optional and
+     *             forwardChecking is true
+     */
+    public void setForwardChecking(boolean forwardChecking) {
+        if (decided > 0) {
+            throw new IllegalStateException(
+                    "Forward checking cannot be changed during a search.");
+        }
+        if (forwardChecking && optional) {
+            throw new IllegalStateException(
+                    "Forward checking cannot be used with optional events.");
+        }
+        this.forwardChecking = false;
+        domain = null;
+        domainSize = null;
+        trail = null;
+        if (!forwardChecking) {
+            reindex();
+            return;
+        }
+        domain = new int[assignment.length][];
+        domainSize = new int[assignment.length];
+        for (int e = 0; e < assignment.length; e++) {
+            domain[e] = new int[countCandidates(e)];
+            for (int v = 0; v < venueCount; v++) {
+                if (canPlace(e, v)) {
+                    domain[e][domainSize[e]++] = v;
+                }
+            }
+        }
+        trail = new int[2 * Math.max(assignment.length, 1)];
+        trailLength = 0;
+        this.forwardChecking = true;
+        reindex();
+    }
+
+    /**
+     * Turns dominance pruning on, using the given dominance order of the
+     * venues, or off if it is null. It is off by default, can only be changed
+     * while no event is placed, and cannot be turned on when events are
+     * optional.
+     *
+     * @param dominance
+     *            the dominance order of the venues of the problem, or null
+     * @throws IllegalStateException
+     *             if some event is placed, or if events are optional and
+     *             dominance is not null
+     * @throws IllegalArgumentException
+     *             if dominance is not for the same number of venues as the
+     *             problem
+     */
+    public void setDominance(VenueDominance dominance) {
+        if (decided > 0) {
+            throw new IllegalStateException(
+                    "Dominance pruning cannot be changed during a search.");
+        }
+        if (dominance != null && optional) {
+            throw new IllegalStateException(
+                    "Dominance pruning cannot be used with optional events.");
+        }
+        if (dominance != null && dominance.getVenueCount() != venueCount) {
+            throw new IllegalArgumentException(
+                    "The dominance order is for a different set of venues.");
+        }
+        this.dominance = dominance;
+        requiredBy = dominance == null ? null : new int[venueCount];
+        requiredFree = 0;
+    }
+
+    /**
+     * Makes the events optional or not. They are not by default. When they
+     * are, the search leaves each event out after trying it at each of its
+     * venues. Events can only be made optional while no event is placed or
+     * left out, and not when forward checking or dominance pruning is on,
+     * since both assume that every event is placed.
+     *
+     * @param optional
+     *            whether the search may leave events out
+     * @throws IllegalStateException
+     *             if some event is placed or left out, or if optional is true
+     *             and forward checking or dominance pruning is on
+     */
+    public void setOptional(boolean optional) {
+        if (decided > 0) {
+            throw new IllegalStateException(
+                    "Optional events cannot be changed during a search.");
+        }
+        if (optional && (forwardChecking || dominance != null)) {
+            throw new IllegalStateException(
+                    "Optional events cannot be used with forward checking or "
+                            + "dominance pruning.");
+        }
+        this.optional = optional;
+    }
+
+    /**
+     * Sets the greatest traffic that the given corridor may carry. Placements
+     * that would take the corridor over the limit are not made, and a search
+     * from a partial allocation that already does backtracks until it no
+     * longer does. Limits cannot be changed while forward checking is on.
+     *
+     * @param corridor
+     *            the id of the corridor
+     * @param limit
+     *            the greatest traffic the corridor may carry
+     * @throws IllegalStateException
+     *             if forward checking is on
+     * @throws IllegalArgumentException
+     *             if limit is negative or greater than the capacity of the
+     *             corridor
+     */
+    public void setCorridorLimit(int corridor, int limit) {
+        if (forwardChecking) {
+            throw new IllegalStateException(
+                    "Corridor limits cannot be changed when forward checking.");
+        }
+        if (limit < 0 || limit > problem.corridorCapacity[corridor]) {
+            throw new IllegalArgumentException(
+                    "The limit must be between 0 and the corridor capacity.");
+        }
+        if (residual[corridor] < 0) {
+            overdrawn--;
+        }
+        residual[corridor] += limit - this.limit[corridor];
+        this.limit[corridor] = limit;
+        if (residual[corridor] < 0) {
+            overdrawn++;
+        }
+    }
+
+    /**
+     * Sets the bound that every node of the search must pass, including the
+     * nodes at which every event is placed or left out, or removes it if
+     * bound is null. The search does not extend a node that the bound
+     * rejects.
+     *
+     * @param bound
+     *            the bound to check, or null
+     */
+    public void setBound(SearchBound bound) {
+        this.bound = bound;
+    }
+
+    /**
+     * Sets the token that the search polls at every node: once the token is
+     * cancelled, solve gives up. A null token means the search is never
+     * cancelled.
+     *
+     * @param token
+     *            the token to poll, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Sets the time at which the search gives up, as a value of
+     * System.nanoTime().
+     *
+     * @param deadline
+     *            the value of System.nanoTime() after which solve gives up
+     */
+    public void setDeadline(long deadline) {
+        this.hasDeadline = true;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Removes the deadline of the search, if it has one.
+     */
+    public void clearDeadline() {
+        hasDeadline = false;
+    }
+
+    /**
+     * Returns true if the last call to solve gave up because its deadline
+     * passed or its token was cancelled, and false otherwise.
+     *
+     * @return true iff the last search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the number of nodes of the search tree explored by this search
+     * so far.
+     *
+     * @return the number of nodes explored
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the greatest number of events that have been placed (or left
+     * out) at once while this search was solving.
+     *
+     * @return the depth reached
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of events that are placed.
+     *
+     * @return the number of events placed
+     */
+    public int getPlacedCount() {
+        return decided - leftOutCount;
+    }
+
+    /**
+     * Returns the number of events that are left out.
+     *
+     * @return the number of events left out
+     */
+    public int getLeftOutCount() {
+        return leftOutCount;
+    }
+
+    /**
+     * Returns true if the given event is placed, and false otherwise.
+     *
+     * @param event
+     *            the id of the event
+     * @return true iff the event is placed
+     */
+    public boolean isPlaced(int event) {
+        return assignment[event] >= 0;
+    }
+
+    /**
+     * Returns true if the given event is left out, and false otherwise.
+     *
+     * @param event
+     *            the id of the event
+     * @return true iff the event is left out
+     */
+    public boolean isLeftOut(int event) {
+        return leftOut[event];
+    }
+
+    /**
+     * Returns true if the given venue is not used by any placed event.
+     *
+     * @param venue
+     *            the id of the venue
+     * @return true iff the venue is free
+     */
+    public boolean isFree(int venue) {
+        return (free[venue >>> 6] & (1L << venue)) != 0;
+    }
+
+    /**
+     * Returns the capacity that the placed events leave on the given corridor,
+     * under its limit. It is negative if the limit has been lowered below the
+     * traffic on the corridor.
+     *
+     * @param corridor
+     *            the id of the corridor
+     * @return the residual capacity of the corridor
+     */
+    public int getResidual(int corridor) {
+        return residual[corridor];
+    }
+
+    /**
+     * Returns the traffic that the placed events generate on the given
+     * corridor.
+     *
+     * @param corridor
+     *            the id of the corridor
+     * @return the traffic on the corridor
+     */
+    public int getLoad(int corridor) {
+        return limit[corridor] - residual[corridor];
+    }
+
+    /**
+     * Returns the number of placed events of the given class. This takes
+     * constant time.
+     *
+     * @param eventClass
+     *            the class of the events (see CompiledProblem.getEventClass)
+     * @return the number of such events that are placed
+     */
+    public int countPlaced(int eventClass) {
+        return classPlaced[eventClass];
+    }
+
+    /**
+     * Returns the number of placed events of the given class that are placed
+     * at venues of the given class. This takes constant time.
+     *
+     * @param eventClass
+     *            the class of the events (see CompiledProblem.getEventClass)
+     * @param venueClass
+     *            the class of the venues (see CompiledProblem.getVenueClass)
+     * @return the number of such placements
+     */
+    public int countPlaced(int eventClass, int venueClass) {
+        return placedCount[eventClass * problem.venueClassCount + venueClass];
+    }
+
+    /**
+     * Returns the id of the venue that the given event is placed at, or -1 if
+     * it is not placed.
+     *
+     * @param event
+     *            the id of the event
+     * @return the venue of the event, or -1
+     */
+    public int getVenue(int event) {
+        return assignment[event];
+    }
+
+    /**
+     * Returns a copy of the current assignment, in which element e is the id
+     * of the venue that event e is placed at, or -1 if it is not placed.
+     *
+     * @return the venue id of each event
+     */
+    public int[] getAssignment() {
+        return assignment.clone();
+    }
+
+    /**
+     * Returns true if the given unplaced event could be placed at the given
+     * venue: that is, if the venue is free, can host the event and the traffic
+     * would stay within the corridor limits.
+     *
+     * @param event
+     *            the id of an unplaced event
+     * @param venue
+     *            the id of a venue
+     * @return true iff the event could be placed at the venue
+     */
+    public boolean canPlace(int event, int venue) {
+        return isFree(venue) && fits(event, venue);
+    }
+
+    /**
+     * Returns the number of venues that the given unplaced event could
+     * currently be placed at. This takes constant time when forward checking
+     * is on.
+     *
+     * @param event
+     *            the id of an unplaced event
+     * @return the number of venues v such that canPlace(event, v)
+     */
+    public int countCandidates(int event) {
+        if (forwardChecking) {
+            return domainSize[event];
+        }
+        int count = 0; // the number of candidates found so far
+        long[] hosts = problem.hostable[problem.eventSizeClass[event]];
+        for (int w = 0; w < free.length; w++) {
+            long bits = free[w] & hosts[w];
+            while (bits != 0) {
+                if (fits(event, (w << 6) + Long.numberOfTrailingZeros(bits))) {
+                    count++;
+                }
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the unplaced event that the event order heuristic would place
+     * next, or -1 if every event is placed or left out. This takes constant
+     * time when the event order is INPUT_ORDER or LARGEST_FIRST, or
+     * FEWEST_VENUES_FIRST with forward checking on.
+     *
+     * @return the id of the next event to place, or -1
+     */
+    public int nextEvent() {
+        if (indexed) {
+            long key = eventTree[1];
+            return key == Long.MAX_VALUE ? -1 : (int) key;
+        }
+        int best = -1; // the best event found so far
+        int bestScore = 0; // the score of best
+        for (int event = 0; event < assignment.length; event++) {
+            if (assignment[event] >= 0 || leftOut[event]) {
+                continue;
+            }
+            int score = eventOrder.score(this, event);
+            if (best < 0 || score < bestScore) {
+                best = event;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the venues that the given unplaced event could currently be
+     * placed at, in the order that the venue order heuristic would try them.
+     *
+     * @param event
+     *            the id of an unplaced event
+     * @return the ids of the candidate venues, in order
+     */
+    public int[] getCandidates(int event) {
+        long[] buffer = new long[venueCount];
+        int count = candidates(event, buffer);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = (int) buffer[i];
+        }
+        return result;
+    }
+
+    /**
+     * Places the given unplaced event at the given venue, if the venue is
+     * free, can host the event and the traffic stays within the corridor
+     * limits. When forward checking is on, the event is also not placed if
+     * that would leave another unplaced event with no venue it could be placed
+     * at, and when dominance pruning is on, if that would leave more free
+     * venues that dominate used ones than there are events left to place.
+     *
+     * @param event
+     *            the id of the event to place
+     * @param venue
+     *            the id of the venue to place it at
+     * @return true if the event was placed, and false (leaving the search
+     *         unchanged) otherwise
+     * @throws IllegalStateException
+     *             if the event is already placed or left out
+     */
+    public boolean place(int event, int venue) {
+        if (assignment[event] >= 0 || leftOut[event]) {
+            throw new IllegalStateException(
+                    "The event is already placed or left out.");
+        }
+        if (!canPlace(event, venue)) {
+            return false;
+        }
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            residual[corridors[k]] -= load[k];
+        }
+        free[venue >>> 6] &= ~(1L << venue);
+        if (dominance != null) {
+            if (requiredBy[venue] > 0) {
+                requiredFree--;
+            }
+            for (int a : dominance.dominators[venue]) {
+                if (requiredBy[a]++ == 0 && isFree(a)) {
+                    requiredFree++;
+                }
+            }
+        }
+        assignment[event] = venue;
+        updateKey(event);
+        int eventClass = problem.eventSizeClass[event];
+        placedCount[eventClass * problem.venueClassCount
+                + problem.venueClass[venue]]++;
+        classPlaced[eventClass]++;
+        int k = symmetryClass[event]; // the symmetry class of the event
+        previousLast[decided] = lastVenue[k];
+        lastVenue[k] = Math.max(lastVenue[k], venue);
+        trailMark[decided] = trailLength;
+        order[decided++] = event;
+        if (dominance != null && requiredFree > assignment.length - decided) {
+            // the free dominating venues cannot all be used
+            unplace();
+            return false;
+        }
+        if (forwardChecking && !propagate(venue)) {
+            unplace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Leaves the given unplaced event out of the allocation. When symmetry
+     * breaking is on, the later events of its class are left out too, since
+     * they are interchangeable with it.
+     *
+     * @param event
+     *            the id of the event to leave out
+     * @throws IllegalStateException
+     *             if events are not optional, or if the event is already
+     *             placed or left out
+     */
+    public void leaveOut(int event) {
+        if (!optional) {
+            throw new IllegalStateException("The events are not optional.");
+        }
+        if (assignment[event] >= 0 || leftOut[event]) {
+            throw new IllegalStateException(
+                    "The event is already placed or left out.");
+        }
+        leftOut[event] = true;
+        leftOutCount++;
+        updateKey(event);
+        previousLast[decided] = lastVenue[symmetryClass[event]];
+        lastVenue[symmetryClass[event]] = venueCount;
+        trailMark[decided] = trailLength;
+        order[decided++] = event;
+    }
+
+    /**
+     * Removes the most recently placed event from its venue, or puts back the
+     * most recently left out event if it was left out since.
+     *
+     * @throws IllegalStateException
+     *             if no event is placed or left out
+     */
+    public void unplace() {
+        if (decided == 0) {
+            throw new IllegalStateException(
+                    "No event is placed or left out.");
+        }
+        int event = order[--decided];
+        if (leftOut[event]) {
+            leftOut[event] = false;
+            leftOutCount--;
+            updateKey(event);
+            lastVenue[symmetryClass[event]] = previousLast[decided];
+            return;
+        }
+        int venue = assignment[event];
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            int c = corridors[k];
+            if (residual[c] < 0 && residual[c] + load[k] >= 0) {
+                overdrawn--;
+            }
+            residual[c] += load[k];
+        }
+        if (dominance != null) {
+            for (int a : dominance.dominators[venue]) {
+                if (--requiredBy[a] == 0 && isFree(a)) {
+                    requiredFree--;
+                }
+            }
+            if (requiredBy[venue] > 0) {
+                requiredFree++;
+            }
+        }
+        free[venue >>> 6] |= 1L << venue;
+        assignment[event] = -1;
+        updateKey(event);
+        int eventClass = problem.eventSizeClass[event];
+        placedCount[eventClass * problem.venueClassCount
+                + problem.venueClass[venue]]--;
+        classPlaced[eventClass]--;
+        lastVenue[symmetryClass[event]] = previousLast[decided];
+        // undo the domain reductions caused by the placement
+        while (trailLength > trailMark[decided]) {
+            trailLength -= 2;
+            domainSize[trail[trailLength]] = trail[trailLength + 1];
+            updateKey(trail[trailLength]);
+        }
+    }
+
+    /**
+     * Searches for a safe extension of the current partial allocation to all
+     * of the events, stopping at the first one found.
+     *
+     * @return true if a safe allocation of all events was found (and is left
+     *         as the current assignment), and false if there is none, or if the
+     *         search gave up (in which case the search is unchanged and
+     *         isStopped() returns true)
+     */
+    public boolean solve() {
+        stopped = false;
+        top = 0;
+        return search(false);
+    }
+
+    /**
+     * Resumes the search that found the current allocation, stopping at the
+     * next safe allocation after it in the order the search explores them.
+     * The corridor limits and the bound may have been changed since, and the
+     * search then backtracks to the deepest placement that satisfies them;
+     * nothing else may have changed.
+     *
+     * @return true if another safe allocation was found (and is left as the
+     *         current assignment), and false if there is none, or if the
+     *         search gave up (in which case isStopped() returns true); in
+     *         both cases the search is back at the partial allocation that the
+     *         last call to solve started from
+     * @throws IllegalStateException
+     *             if the last call to solve or solveNext did not find an
+     *             allocation
+     */
+    public boolean solveNext() {
+        if (!resumable || decided != assignment.length) {
+            throw new IllegalStateException(
+                    "The last search did not find an allocation.");
+        }
+        stopped = false;
+        return search(true);
+    }
+
+    /**
+     * Searches for a safe extension of the current partial allocation, giving
+     * up (and setting stopped) if the token is cancelled or the deadline has
+     * passed. The deadline is only checked every 256 nodes, since reading the
+     * clock costs far more than exploring a node. When resume is true, the
+     * current node is the allocation the last search found, and the search
+     * carries on after it.
+     *
+     * The search tree is walked depth-first on the explicit frame stack rather
+     * than by recursion, so its depth is not limited by the size of the
+     * thread's stack. The frames are allocated with the search, and the
+     * chunks of candidates of every frame share one stack. No frame is
+     * extended while a corridor is over its limit, since every placement
+     * below it would be too.
+     */
+    private boolean search(boolean resume) {
+        resumable = false;
+        boolean visit = !resume; // whether the current node is to be visited
+        while (true) {
+            if (visit) {
+                // visit the node of the current partial allocation
+                if (stopped || (token != null && token.isCancelled())
+                        || (hasDeadline && (nodes & 0xff) == 0
+                                && System.nanoTime() - deadline >= 0)) {
+                    stopped = true;
+                    // every frame has a placement to undo
+                    for (; top > 0; top--) {
+                        unplace();
+                    }
+                    return false;
+                }
+                nodes++;
+                maxDepth = Math.max(maxDepth, decided);
+                if (overdrawn == 0 && (bound == null || bound.admits(this))) {
+                    if (decided == assignment.length) {
+                        resumable = true;
+                        return true;
+                    }
+                    push(top++, nextEvent());
+                } else if (top == 0) {
+                    return false;
+                } else {
+                    unplace();
+                }
+            } else if (top == 0) {
+                return false;
+            } else {
+                unplace();
+            }
+            visit = true;
+            // advance to the next placement that succeeds, backtracking over
+            // the frames whose choices have all been tried
+            while (true) {
+                int f = top - 1; // the top frame
+                int venue = overdrawn > 0 || frameLeftOut[f] ? -1 : advance(f);
+                if (venue < 0) {
+                    if (optional && overdrawn == 0 && !frameLeftOut[f]) {
+                        frameLeftOut[f] = true;
+                        leaveOut(frameEvent[f]);
+                        break;
+                    }
+                    if (--top == 0) {
+                        return false;
+                    }
+                    unplace();
+                    continue;
+                }
+                if (place(frameEvent[f], venue)) {
+                    break;
+                }
+                // otherwise forward checking or dominance found a dead end
+            }
+        }
+    }
+
+    /**
+     * Pushes frame f, which places the given event, on top of the frames
+     * below it.
+     */
+    private void push(int f, int event) {
+        frameEvent[f] = event;
+        frameStart[f] = f == 0 ? 0 : frameStart[f - 1] + frameCount[f - 1];
+        frameCount[f] = 0;
+        frameCursor[f] = 0;
+        frameLeftOut[f] = false;
+        if (venueOrder != VenueOrder.INPUT_ORDER) {
+            frameChunk[f] = FIRST_CHUNK;
+            select(f, false);
+        }
+    }
+
+    /**
+     * Returns the next candidate of the top frame f, or -1 if every one has
+     * been tried.
+     */
+    private int advance(int f) {
+        int event = frameEvent[f];
+        if (venueOrder == VenueOrder.INPUT_ORDER) {
+            int venue = nextCandidate(event, frameCursor[f]);
+            frameCursor[f] = venue + 1;
+            return venue;
+        }
+        if (frameCursor[f] == frameCount[f]) {
+            if (frameChunk[f] == 0) {
+                return -1;
+            }
+            select(f, true);
+            if (frameCount[f] == 0) {
+                // lowered limits have ruled out the rest of the candidates
+                return -1;
+            }
+        }
+        return (int) stack[frameStart[f] + frameCursor[f]++];
+    }
+
+    /**
+     * Selects the next chunk of the candidates of the top frame f: the first
+     * frameChunk[f] of them in order, after frameAfter[f] if after is true.
+     * The candidates are the same each time, since the search is in the state
+     * it was in when the frame was pushed, except that lowered corridor limits
+     * may have ruled some of them out. The chunk is kept in a max-heap
+     * while the candidates are scanned, so only the chunk is sorted.
+     */
+    private void select(int f, boolean after) {
+        int event = frameEvent[f];
+        int start = frameStart[f];
+        int bound = forwardChecking ? domainSize[event] : venueCount
+                - getPlacedCount();
+        if (stack.length - start < bound) {
+            stack = Arrays.copyOf(stack, Math.max(2 * stack.length, start
+                    + bound));
+        }
+        int count = collect(event, stack, start);
+        int chunk = frameChunk[f];
+        int size = 0; // the size of the heap at stack[start ..]
+        int remaining = 0; // the number of candidates after frameAfter[f]
+        for (int i = start; i < start + count; i++) {
+            long key = stack[i];
+            if (after && key <= frameAfter[f]) {
+                continue;
+            }
+            remaining++;
+            if (size < chunk) {
+                // sift the key up from the end of the heap
+                int child = size++;
+                while (child > 0 && stack[start + (child - 1) / 2] < key) {
+                    stack[start + child] = stack[start + (child - 1) / 2];
+                    child = (child - 1) / 2;
+                }
+                stack[start + child] = key;
+            } else if (key < stack[start]) {
+                // replace the greatest key and sift it down
+                int parent = 0;
+                while (2 * parent + 1 < size) {
+                    int child = 2 * parent + 1;
+                    if (child + 1 < size && stack[start + child + 1]
+                            > stack[start + child]) {
+                        child++;
+                    }
+                    if (stack[start + child] <= key) {
+                        break;
+                    }
+                    stack[start + parent] = stack[start + child];
+                    parent = child;
+                }
+                stack[start + parent] = key;
+            }
+        }
+        Arrays.sort(stack, start, start + size);
+        frameCount[f] = size;
+        frameCursor[f] = 0;
+        frameChunk[f] = remaining > size ? 2 * chunk : 0;
+        if (size > 0) {
+            frameAfter[f] = stack[start + size - 1];
+        }
+    }
+
+    /**
+     * Returns the lowest venue from the given one on that the given event
+     * could currently be placed at (and that symmetry breaking, if it is on,
+     * would try), or -1 if there is none. Equivalent venues can host the same
+     * events with the same traffic, so a venue is the lowest free candidate
+     * of its class iff no lower venue of its class from the first venue the
+     * event may be placed at on is free.
+     */
+    private int nextCandidate(int event, int from) {
+        int first = 0; // the lowest venue that may be tried
+        if (symmetryBreaking) {
+            first = lastVenue[symmetryClass[event]] + 1;
+        }
+        from = Math.max(from, first);
+        if (from >= venueCount) {
+            return -1;
+        }
+        long[] hosts = problem.hostable[problem.eventSizeClass[event]];
+        for (int w = from >>> 6; w < free.length; w++) {
+            long bits = free[w] & hosts[w];
+            if (w == from >>> 6) {
+                bits &= -1L << from;
+            }
+            while (bits != 0) {
+                int venue = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (symmetryBreaking && !lowestFree(venue, first)) {
+                    continue;
+                }
+                if (fits(event, venue)) {
+                    return venue;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if no venue of the same class as the given free venue is
+     * free between first and the venue.
+     */
+    private boolean lowestFree(int venue, int first) {
+        for (int other = problem.previousInClass[venue]; other >= first;
+                other = problem.previousInClass[other]) {
+            if (isFree(other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decides whether the unplaced events are kept in the tournament tree,
+     * and if so rebuilds it from the current state of the search.
+     */
+    private void reindex() {
+        indexed = eventOrder == EventOrder.INPUT_ORDER
+                || eventOrder == EventOrder.LARGEST_FIRST
+                || (eventOrder == EventOrder.FEWEST_VENUES_FIRST
+                        && forwardChecking);
+        if (!indexed) {
+            return;
+        }
+        int n = assignment.length;
+        Arrays.fill(eventTree, Long.MAX_VALUE);
+        for (int e = 0; e < n; e++) {
+            eventTree[n + e] = key(e);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            eventTree[i] = Math.min(eventTree[2 * i], eventTree[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Updates the key of the given event in the tournament tree, if the
+     * events are kept in it.
+     */
+    private void updateKey(int event) {
+        if (!indexed) {
+            return;
+        }
+        int i = assignment.length + event; // the node being updated
+        eventTree[i] = key(event);
+        for (i >>>= 1; i > 0; i >>>= 1) {
+            eventTree[i] = Math.min(eventTree[2 * i], eventTree[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Returns the key of the given event in the tournament tree: its score
+     * under the (indexed) event order in the high 32 bits and its id in the
+     * low 32 bits, or Long.MAX_VALUE if it is placed or left out.
+     */
+    private long key(int event) {
+        if (assignment[event] >= 0 || leftOut[event]) {
+            return Long.MAX_VALUE;
+        }
+        long score = 0; // the score of the event
+        if (eventOrder == EventOrder.LARGEST_FIRST) {
+            score = -problem.eventSize[event];
+        } else if (eventOrder == EventOrder.FEWEST_VENUES_FIRST) {
+            score = domainSize[event];
+        }
+        return (score << 32) | event;
+    }
+
+    /**
+     * Removes the given (just used) venue, and every venue that no longer
+     * fits under the residual corridor capacities, from the domains of the
+     * unplaced events. Returns false as soon as some domain becomes empty.
+     */
+    private boolean propagate(int venue) {
+        for (int e = 0; e < assignment.length; e++) {
+            if (assignment[e] >= 0) {
+                continue;
+            }
+            int[] live = domain[e];
+            int size = domainSize[e];
+            int i = 0; // the position in live being checked
+            while (i < size) {
+                int v = live[i];
+                if (v == venue || !fits(e, v)) {
+                    // swap the venue out of the live part of the domain
+                    live[i] = live[--size];
+                    live[size] = v;
+                } else {
+                    i++;
+                }
+            }
+            if (size < domainSize[e]) {
+                if (trailLength == trail.length) {
+                    trail = Arrays.copyOf(trail, 2 * trail.length);
+                }
+                trail[trailLength++] = e;
+                trail[trailLength++] = domainSize[e];
+                domainSize[e] = size;
+                updateKey(e);
+                if (size == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given venue can host the given event and the
+     * traffic the event would generate there fits under the residual capacity
+     * of every corridor, under its limit (whether or not the venue is used).
+     */
+    private boolean fits(int event, int venue) {
+        int[] load = problem.loads(event, venue);
+        return load != null && fitsLoad(load, venue);
+    }
+
+    /**
+     * Returns true if the given loads on the corridors of the given venue fit
+     * under the residual capacity of every corridor.
+     */
+    private boolean fitsLoad(int[] load, int venue) {
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            if (load[k] > residual[corridors[k]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the free venues that can host the events of the given size class
+     * among venues 64 * w to 64 * w + 63, as the bits of a long.
+     */
+    long freeHosts(int sizeClass, int w) {
+        return free[w] & problem.hostable[sizeClass][w];
+    }
+
+    /**
+     * Returns the number of free venues that can host the events of the given
+     * size class and at which such an event alone would fit under the residual
+     * corridor capacities, counting no further than atMost.
+     */
+    int countFree(int sizeClass, int atMost) {
+        int found = 0; // the number of such venues found so far
+        long[] hosts = problem.hostable[sizeClass];
+        int[][] sizeLoad = problem.sizeLoad[sizeClass];
+        for (int w = 0; w < free.length && found < atMost; w++) {
+            long bits = free[w] & hosts[w];
+            while (bits != 0 && found < atMost) {
+                int venue = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (fitsLoad(sizeLoad[venue], venue)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds the given venue to the first count candidates in buffer, unless
+     * symmetry breaking is on and a lower venue of the same class is already
+     * there (if a higher one is, it is replaced), and returns the new number
+     * of candidates.
+     */
+    private int offer(int venue, long[] buffer, int count) {
+        if (symmetryBreaking) {
+            // only the lowest free venue of each class is a candidate
+            int venueClass = problem.venueClass[venue];
+            if (seen[venueClass] == stamp) {
+                if (venue < buffer[slot[venueClass]]) {
+                    buffer[slot[venueClass]] = venue;
+                }
+                return count;
+            }
+            seen[venueClass] = stamp;
+            slot[venueClass] = count;
+        }
+        buffer[count] = venue;
+        return count + 1;
+    }
+
+    /**
+     * Fills buffer with the venues that the given event could currently be
+     * placed at (less the symmetric ones, if symmetry breaking is on), in the
+     * order the venue order heuristic would try them, and returns how many
+     * there are. Each element holds the venue's score in its high 32 bits and
+     * the venue's id in its low 32 bits, so that sorting the keys orders the
+     * venues by score and then by id.
+     */
+    int candidates(int event, long[] buffer) {
+        int count = collect(event, buffer, 0);
+        Arrays.sort(buffer, 0, count);
+        return count;
+    }
+
+    /**
+     * Fills buffer from the given offset on with the keys of the candidates
+     * of the given event, in the same way as candidates(event, buffer) but in
+     * no particular order, and returns how many there are.
+     */
+    private int collect(int event, long[] buffer, int offset) {
+        int count = offset; // the end of the candidates found so far
+        int first = 0; // the lowest venue that may be tried
+        if (symmetryBreaking) {
+            first = lastVenue[symmetryClass[event]] + 1;
+            if (++stamp == 0) {
+                // the stamp has wrapped around, so forget the old marks
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+        }
+        if (forwardChecking) {
+            // the candidates are the event's live domain
+            int[] live = domain[event];
+            for (int i = 0; i < domainSize[event]; i++) {
+                if (live[i] >= first) {
+                    count = offer(live[i], buffer, count);
+                }
+            }
+        } else if (first < venueCount) {
+            // scan the free venues that can host the event, from first on
+            long[] hosts = problem.hostable[problem.eventSizeClass[event]];
+            for (int w = first >>> 6; w < free.length; w++) {
+                long bits = free[w] & hosts[w];
+                if (w == first >>> 6) {
+                    bits &= -1L << first;
+                }
+                while (bits != 0) {
+                    int venue = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (fits(event, venue)) {
+                        count = offer(venue, buffer, count);
+                    }
+                    bits &= bits - 1;
+                }
+            }
+        }
+        for (int i = offset; i < count; i++) {
+            long venue = buffer[i];
+            long score = venueOrder.score(this, event, (int) venue);
+            buffer[i] = (score << 32) | venue;
+        }
+        return count - offset;
+    }
+
+}
@@ -0,0 +1,194 @@
+package planner;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A spliterator over all of the safe allocations of the events of a compiled
+ * problem to its venues, which produces them lazily, one at a time.
+ * </p>
+ *
+ * <p>
+ * The spliterator walks the search tree of an AllocationSearch depth-first
+ * using an explicit stack of frames, one for each placed event, so apart from
+ * the allocations it hands out it uses memory proportional to the number of
+ * events times the number of venues, however many safe allocations there are.
+ * Each safe allocation is produced exactly once.
+ * </p>
+ *
+ * <p>
+ * Splitting hands half of the untried venues of the shallowest frame that has
+ * at least two left to a new spliterator, together with a copy of the search
+ * state above that frame, so that a parallel stream can share the search tree
+ * out between threads.
+ * </p>
+ */
+public class AllocationSpliterator implements
+        Spliterator<Map<Event, Venue>> {
+
+    // the search whose tree is walked (owned by this spliterator)
+    private final AllocationSearch search;
+    // the number of events placed above the first frame
+    private final int base;
+
+    // the event placed by each frame, the venues it tries (as keys of the
+    // form returned by AllocationSearch.candidates), how many there are and
+    // how many have been tried
+    private final int[] frameEvent;
+    private final long[][] frameCandidates;
+    private final int[] frameCount;
+    private final int[] frameCursor;
+    // the number of frames on the stack
+    private int top;
+    // whether the first frame has been pushed
+    private boolean started;
+
+    /*
+     * invariant: search.getPlacedCount() == base + top - 1 when top > 0, and
+     * frame i < top - 1 has its last tried venue placed, while the top frame
+     * has none of its venues placed
+     */
+
+    /**
+     * Creates a spliterator over all of the safe allocations of the events of
+     * the given problem to its venues.
+     *
+     * @param problem
+     *            the problem whose safe allocations will be produced
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public AllocationSpliterator(CompiledProblem problem) {
+        this(newSearch(problem), 0);
+    }
+
+    /**
+     * Creates a spliterator over the part of the search tree below the current
+     * partial allocation of the given search, which it takes ownership of.
+     */
+    private AllocationSpliterator(AllocationSearch search, int base) {
+        this.search = search;
+        this.base = base;
+        int depth = search.getProblem().getEventCount() - base + 1;
+        frameEvent = new int[depth];
+        frameCandidates = new long[depth][];
+        frameCount = new int[depth];
+        frameCursor = new int[depth];
+        top = 0;
+        started = false;
+    }
+
+    /**
+     * Returns a search for the given problem that enumerates every safe
+     * allocation: no symmetry breaking, but forward checking (which only
+     * prunes branches with no safe allocations) and fail-first event order.
+     */
+    private static AllocationSearch newSearch(CompiledProblem problem) {
+        AllocationSearch search = new AllocationSearch(problem);
+        search.setEventOrder(EventOrder.FEWEST_VENUES_FIRST);
+        search.setForwardChecking(true);
+        return search;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map<Event, Venue>> action) {
+        if (action == null) {
+            throw new NullPointerException("The action cannot be null.");
+        }
+        CompiledProblem problem = search.getProblem();
+        if (!started) {
+            started = true;
+            if (search.getPlacedCount() == problem.getEventCount()) {
+                // there is nothing left to place: one (empty) allocation
+                action.accept(problem.toAllocation(search.getAssignment()));
+                return true;
+            }
+            push(search.nextEvent());
+        }
+        while (top > 0) {
+            int f = top - 1; // the top frame
+            if (frameCursor[f] == frameCount[f]) {
+                // every venue of the top frame has been tried
+                top--;
+                if (top > 0) {
+                    search.unplace();
+                }
+                continue;
+            }
+            int venue = (int) frameCandidates[f][frameCursor[f]++];
+            if (!search.place(frameEvent[f], venue)) {
+                continue;
+            }
+            if (search.getPlacedCount() == problem.getEventCount()) {
+                action.accept(problem.toAllocation(search.getAssignment()));
+                search.unplace();
+                return true;
+            }
+            push(search.nextEvent());
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<Map<Event, Venue>> trySplit() {
+        if (!started) {
+            if (search.getPlacedCount() == search.getProblem()
+                    .getEventCount()) {
+                return null;
+            }
+            started = true;
+            push(search.nextEvent());
+        }
+        for (int f = 0; f < top; f++) {
+            int remaining = frameCount[f] - frameCursor[f];
+            if (remaining < 2) {
+                continue;
+            }
+            int middle = frameCursor[f] + remaining / 2;
+            // a copy of the search with only the placements above frame f
+            AllocationSearch copy = new AllocationSearch(search);
+            while (copy.getPlacedCount() > base + f) {
+                copy.unplace();
+            }
+            AllocationSpliterator prefix = new AllocationSpliterator(copy,
+                    base + f);
+            prefix.started = true;
+            prefix.top = 1;
+            prefix.frameEvent[0] = frameEvent[f];
+            prefix.frameCandidates[0] = Arrays.copyOfRange(
+                    frameCandidates[f], middle, frameCount[f]);
+            prefix.frameCount[0] = frameCount[f] - middle;
+            prefix.frameCursor[0] = 0;
+            frameCount[f] = middle;
+            return prefix;
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+
+    /**
+     * Pushes a frame for placing the given unplaced event, whose venues are
+     * the event's current candidates.
+     */
+    private void push(int event) {
+        if (frameCandidates[top] == null) {
+            frameCandidates[top] = new long[search.getProblem()
+                    .getVenueCount()];
+        }
+        frameEvent[top] = event;
+        frameCount[top] = search.candidates(event, frameCandidates[top]);
+        frameCursor[top] = 0;
+        top++;
+    }
+
+}
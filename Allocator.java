@@ -1,9 +1,13 @@
 package planner;
 
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Provides a method for finding a safe allocation of events to venues.
+ * Provides methods for finding a safe allocation of events to venues.
  */
 public class Allocator {
 
@@ -37,6 +41,540 @@ public class Allocator {
         }
     }
 
+    /**
+     * <p>
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise.
+     * </p>
+     * 
+     * <p>
+     * Unlike allocate, this method does not enumerate every safe allocation:
+     * it compiles the problem, backtracks over the events, checks that the
+     * traffic is still safe each time an event is placed at a venue, and stops
+     * as soon as the first safe allocation is found. The given lists are not
+     * modified.
+     * </p>
+     * 
+     * <p>
+     * Problems in which the events cannot even be matched to distinct venues
+     * with enough capacity are rejected before the search starts. Otherwise
+     * the event with the fewest venues it could still be placed at is placed
+     * next, a venue like the one it was matched to is tried first, and then
+     * the venues that leave the most headroom on their corridors.
+     * Permutations of interchangeable venues and events are not explored, and
+     * neither are allocations that leave free a venue that dominates a used
+     * one (see VenueDominance). The matching is closed under dominance, so
+     * the venues it prefers are consistent with that pruning.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocateFirst(List<Event> events,
+            List<Venue> venues) {
+        return allocateFirst(new CompiledProblem(events, venues));
+    }
+
+    /**
+     * Returns a safe allocation of the events of the given problem to its
+     * venues, if there is at least one, or null otherwise, in the same way as
+     * allocateFirst(events, venues).
+     * 
+     * @require problem != null
+     * @ensure Returns a safe allocation of the events of problem to its
+     *         venues, if there is at least one possible safe allocation, or
+     *         null otherwise.
+     */
+    static Map<Event, Venue> allocateFirst(CompiledProblem problem) {
+        return allocateFirst(problem, new VenueDominance(problem));
+    }
+
+    /**
+     * Returns a safe allocation of the events of the given problem to its
+     * venues, if there is at least one, or null otherwise, in the same way as
+     * allocateFirst(events, venues), using the given dominance order of its
+     * venues. Problems that share their venues can share the order.
+     * 
+     * @require problem != null && dominance != null && dominance is the
+     *          dominance order of the venues of problem
+     * @ensure Returns a safe allocation of the events of problem to its
+     *         venues, if there is at least one possible safe allocation, or
+     *         null otherwise.
+     */
+    static Map<Event, Venue> allocateFirst(CompiledProblem problem,
+            VenueDominance dominance) {
+        CapacityMatching matching = new CapacityMatching(problem, dominance);
+        if (!matching.isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        AllocationSearch search = newSearch(problem, matching, dominance);
+        if (search.solve()) {
+            return problem.toAllocation(search.getAssignment());
+        }
+        // returns null to signify that there is no possible safe allocation
+        return null;
+    }
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise, using the given heuristics
+     * to choose the next event to place and the order to try its venues in.
+     * Dominance pruning is not used, since it only pays off when the venue
+     * order is consistent with it.
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues &&
+     *          eventOrder != null && venueOrder != null.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocateFirst(List<Event> events,
+            List<Venue> venues, EventOrder eventOrder, VenueOrder venueOrder) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        AllocationSearch search = newSearch(problem, eventOrder, venueOrder,
+                null);
+        if (search.solve()) {
+            return problem.toAllocation(search.getAssignment());
+        }
+        // returns null to signify that there is no possible safe allocation
+        return null;
+    }
+
+    /**
+     * <p>
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise, using a search that
+     * backjumps to the placements to blame for each dead end and learns
+     * nogoods from them (see BackjumpingSearch).
+     * </p>
+     * 
+     * <p>
+     * This pays off when corridors overflow deep in the search because of
+     * placements made much earlier, which plain backtracking would only undo
+     * after retrying every placement in between.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocateByBackjumping(List<Event> events,
+            List<Venue> venues) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        BackjumpingSearch search = new BackjumpingSearch(problem);
+        if (search.solve()) {
+            return problem.toAllocation(search.getAssignment());
+        }
+        // returns null to signify that there is no possible safe allocation
+        return null;
+    }
+
+    /**
+     * <p>
+     * Returns the safe allocation of events to venues with the smallest peak
+     * utilisation (the greatest ratio of traffic to capacity over all of the
+     * corridors), if there is at least one possible safe allocation, or null
+     * otherwise (see PeakUtilisationOptimiser).
+     * </p>
+     * 
+     * <p>
+     * Proving that no allocation has a smaller peak can take time exponential
+     * in the number of events, and does on large problems whose corridors
+     * are loose. Use allocateMinimisingPeakWithin to bound the time taken.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues whose peak
+     *         utilisation is as small as that of any safe allocation, if there
+     *         is at least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocateMinimisingPeak(
+            List<Event> events, List<Venue> venues) {
+        return allocateMinimisingPeak(events, venues, null);
+    }
+
+    /**
+     * <p>
+     * Returns the safe allocation of events to venues with the smallest peak
+     * utilisation, if there is at least one possible safe allocation, or null
+     * otherwise, telling the given listener (unless it is null) about each
+     * better allocation, and its peak utilisation, as the search finds it.
+     * Like allocateMinimisingPeak(events, venues), it may run for a long
+     * time; use allocateMinimisingPeakWithin to bound the time taken.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues whose peak
+     *         utilisation is as small as that of any safe allocation, if there
+     *         is at least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocateMinimisingPeak(
+            List<Event> events, List<Venue> venues,
+            IncumbentListener listener) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        PeakUtilisationOptimiser optimiser = new PeakUtilisationOptimiser(
+                problem);
+        optimiser.setListener(listener);
+        if (optimiser.solve()) {
+            return problem.toAllocation(optimiser.getBestAssignment());
+        }
+        // returns null to signify that there is no possible safe allocation
+        return null;
+    }
+
+    /**
+     * <p>
+     * Searches for the safe allocation of events to venues with the smallest
+     * peak utilisation for at most the given amount of time, or until the
+     * given token is cancelled, in the same way as
+     * allocateMinimisingPeak(events, venues, listener).
+     * </p>
+     * 
+     * <p>
+     * If the search is stopped after it has found a safe allocation, the
+     * result is FOUND with the best allocation found so far, and isStopped
+     * says that it may not be optimal. If it is stopped before it finds one,
+     * the result is UNKNOWN. Otherwise the result holds an optimal allocation
+     * (status FOUND) or proves that there is none (status INFEASIBLE).
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues &&
+     *          timeoutMillis >= 0.
+     * @ensure Returns the outcome of a search for the safe allocation of
+     *         events to venues with the smallest peak utilisation that lasts
+     *         for at most (about) timeoutMillis milliseconds, and stops early
+     *         if token (when not null) is cancelled. Its allocation, if any,
+     *         is optimal unless the result is stopped.
+     */
+    public static AllocationResult allocateMinimisingPeakWithin(
+            List<Event> events, List<Venue> venues, long timeoutMillis,
+            CancellationToken token, IncumbentListener listener) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                timeoutMillis);
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return new AllocationResult(AllocationResult.Status.INFEASIBLE,
+                    null, 0, 0);
+        }
+        PeakUtilisationOptimiser optimiser = new PeakUtilisationOptimiser(
+                problem);
+        optimiser.setListener(listener);
+        optimiser.setDeadline(deadline);
+        optimiser.setCancellationToken(token);
+        AllocationResult.Status status = AllocationResult.Status.INFEASIBLE;
+        Map<Event, Venue> allocation = null;
+        if (optimiser.solve()) {
+            status = AllocationResult.Status.FOUND;
+            allocation = problem.toAllocation(optimiser.getBestAssignment());
+        } else if (optimiser.isStopped()) {
+            status = AllocationResult.Status.UNKNOWN;
+        }
+        return new AllocationResult(status, allocation, optimiser
+                .getNodeCount(), optimiser.getMaxDepth(), optimiser
+                .isStopped());
+    }
+
+    /**
+     * <p>
+     * Returns a safe allocation of as many of the events as possible to
+     * venues. Unlike the other methods, it returns an allocation even when
+     * not every event can be allocated: the events left out are simply not in
+     * it (see PartialAllocationOptimiser).
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of a subset of events to venues that
+     *         allocates as many events as any safe allocation of a subset of
+     *         events.
+     */
+    public static Map<Event, Venue> allocateMostEvents(List<Event> events,
+            List<Venue> venues) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        return allocateHeaviest(problem, new PartialAllocationOptimiser(
+                problem));
+    }
+
+    /**
+     * <p>
+     * Returns a safe allocation of the subset of the events with the greatest
+     * total weight to venues, where the weight of each event is its priority.
+     * The events left out are not in the allocation returned (see
+     * PartialAllocationOptimiser).
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues && weights
+     *          != null && weights.get(e) > 0 for every event e in events.
+     * @ensure Returns a safe allocation of a subset of events to venues whose
+     *         events have a total weight as great as that of any safe
+     *         allocation of a subset of events.
+     */
+    public static Map<Event, Venue> allocateHeaviest(List<Event> events,
+            List<Venue> venues, Map<Event, Integer> weights) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        int[] weight = new int[events.size()];
+        for (int e = 0; e < weight.length; e++) {
+            weight[e] = weights.get(problem.getEvent(e));
+        }
+        return allocateHeaviest(problem, new PartialAllocationOptimiser(
+                problem, weight));
+    }
+
+    /**
+     * Returns the allocation of the events of the given problem that are
+     * allocated by the best subset the given optimiser finds.
+     * 
+     * @require problem != null && optimiser != null && optimiser is for
+     *          problem
+     * @ensure Returns the safe partial allocation found by optimiser.
+     */
+    private static Map<Event, Venue> allocateHeaviest(CompiledProblem problem,
+            PartialAllocationOptimiser optimiser) {
+        optimiser.solve();
+        return problem.toAllocation(optimiser.getBestAssignment());
+    }
+
+    /**
+     * <p>
+     * Explains why there is no safe allocation of events to venues, by
+     * returning a minimal subset of the events that already cannot be safely
+     * allocated and the corridors that keep them from being (see
+     * ConflictExplainer). The explanation takes a number of solves that grows
+     * with the size of the subset, not with the number of events.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns null if there is at least one possible safe allocation
+     *         of events to venues, or a minimal infeasible core of events and
+     *         venues otherwise.
+     */
+    public static InfeasibleCore explainInfeasibility(List<Event> events,
+            List<Venue> venues) {
+        return ConflictExplainer.explain(events, venues);
+    }
+
+    /**
+     * <p>
+     * Searches for a safe allocation of events to venues heuristically, for
+     * instances too large to search exhaustively, and returns the first one
+     * found, or null if none was found (see LocalSearchAllocator).
+     * </p>
+     * 
+     * <p>
+     * Unlike the other methods, a null result does not mean that there is no
+     * safe allocation, only that the search did not find one. The same seed
+     * always gives the same result.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, or null if the
+     *         local search seeded with seed did not find one.
+     */
+    public static Map<Event, Venue> allocateByLocalSearch(List<Event> events,
+            List<Venue> venues, long seed) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        int[] assignment = new LocalSearchAllocator(problem, seed).solve();
+        return assignment == null ? null : problem.toAllocation(assignment);
+    }
+
+    /**
+     * <p>
+     * Searches for a safe allocation of events to venues for at most the given
+     * amount of time, or until the given token is cancelled, in the same way
+     * as allocateFirst(events, venues).
+     * </p>
+     * 
+     * <p>
+     * The result either holds a safe allocation (status FOUND), proves that
+     * there is none (status INFEASIBLE), or says that the search was stopped
+     * before it could do either (status UNKNOWN). It also records the number
+     * of nodes explored and the depth reached by the search.
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues &&
+     *          timeoutMillis >= 0.
+     * @ensure Returns the outcome of a search for a safe allocation of events
+     *         to venues that lasts for at most (about) timeoutMillis
+     *         milliseconds, and stops early if token (when not null) is
+     *         cancelled.
+     */
+    public static AllocationResult allocateWithin(List<Event> events,
+            List<Venue> venues, long timeoutMillis, CancellationToken token) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                timeoutMillis);
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        VenueDominance dominance = new VenueDominance(problem);
+        CapacityMatching matching = new CapacityMatching(problem, dominance);
+        if (!matching.isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return new AllocationResult(AllocationResult.Status.INFEASIBLE,
+                    null, 0, 0);
+        }
+        AllocationSearch search = newSearch(problem, matching, dominance);
+        search.setDeadline(deadline);
+        search.setCancellationToken(token);
+        AllocationResult.Status status = AllocationResult.Status.INFEASIBLE;
+        Map<Event, Venue> allocation = null;
+        if (search.solve()) {
+            status = AllocationResult.Status.FOUND;
+            allocation = problem.toAllocation(search.getAssignment());
+        } else if (search.isStopped()) {
+            status = AllocationResult.Status.UNKNOWN;
+        }
+        return new AllocationResult(status, allocation, search.getNodeCount(),
+                search.getMaxDepth());
+    }
+
+    /**
+     * Returns a new search of the given problem in the configuration of
+     * allocateFirst(events, venues): the event with the fewest venues is
+     * placed first, at a venue that follows the given matching if it can, and
+     * symmetry breaking, forward checking and dominance pruning are on.
+     * 
+     * @require problem != null && matching != null && dominance != null &&
+     *          matching is a matching of problem closed under dominance, the
+     *          dominance order of the venues of problem
+     * @ensure Returns a new search of problem, in which no event is placed.
+     */
+    static AllocationSearch newSearch(CompiledProblem problem,
+            CapacityMatching matching, VenueDominance dominance) {
+        return newSearch(problem, EventOrder.FEWEST_VENUES_FIRST, matching
+                .preferMatched(VenueOrder.LEAST_LOADED_FIRST), dominance);
+    }
+
+    /**
+     * Returns a new search of the given problem that uses the given heuristics
+     * and has symmetry breaking and forward checking turned on, and dominance
+     * pruning too if dominance is not null.
+     * 
+     * @require problem != null && eventOrder != null && venueOrder != null
+     *          && (dominance == null || dominance is the dominance order of
+     *          the venues of problem)
+     * @ensure Returns a new search of problem, in which no event is placed.
+     */
+    private static AllocationSearch newSearch(CompiledProblem problem,
+            EventOrder eventOrder, VenueOrder venueOrder,
+            VenueDominance dominance) {
+        AllocationSearch search = new AllocationSearch(problem);
+        search.setEventOrder(eventOrder);
+        search.setVenueOrder(venueOrder);
+        search.setSymmetryBreaking(true);
+        search.setForwardChecking(true);
+        search.setDominance(dominance);
+        return search;
+    }
+
+    /**
+     * <p>
+     * Returns a lazy stream of all of the possible safe allocations of events
+     * to venues, each of which appears exactly once.
+     * </p>
+     * 
+     * <p>
+     * Allocations are produced one at a time as the stream is consumed, so
+     * memory use does not grow with the number of safe allocations. The stream
+     * may be made parallel, in which case the search tree is split between
+     * threads (see AllocationSpliterator).
+     * </p>
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a stream of all of the possible safe allocations of
+     *         events to venues (which is empty if there are none).
+     */
+    public static Stream<Map<Event, Venue>> safeAllocations(
+            List<Event> events, List<Venue> venues) {
+        return StreamSupport.stream(spliterator(events, venues), false);
+    }
+
+    /**
+     * Returns a lazy iterator over all of the possible safe allocations of
+     * events to venues, each of which appears exactly once. Allocations are
+     * produced one at a time, as the iterator is advanced.
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns an iterator over all of the possible safe allocations of
+     *         events to venues (which has no elements if there are none).
+     */
+    public static Iterator<Map<Event, Venue>> safeAllocationIterator(
+            List<Event> events, List<Venue> venues) {
+        return Spliterators.iterator(spliterator(events, venues));
+    }
+
+    /**
+     * Returns the number of possible safe allocations of events to venues,
+     * without building any of them (see AllocationCounter).
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns the number of possible safe allocations of events to
+     *         venues.
+     */
+    public static BigInteger countSafeAllocations(List<Event> events,
+            List<Venue> venues) {
+        return new AllocationCounter(new CompiledProblem(events, venues))
+                .count();
+    }
+
+    /**
+     * Returns a spliterator over all of the possible safe allocations of
+     * events to venues.
+     * 
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a spliterator over all of the possible safe allocations
+     *         of events to venues.
+     */
+    private static Spliterator<Map<Event, Venue>> spliterator(
+            List<Event> events, List<Venue> venues) {
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return Spliterators.emptySpliterator();
+        }
+        return new AllocationSpliterator(problem);
+    }
+
     /**
      * Returns the set of all possible safe allocations of events to venues.
      * 
@@ -0,0 +1,503 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A backtracking search for a safe allocation of the events of a compiled
+ * problem to its venues, that backjumps over placements that had nothing to do
+ * with a dead end and learns nogoods from the dead ends it meets.
+ * </p>
+ *
+ * <p>
+ * The events are placed one at a time, largest first, and events of the same
+ * size at increasing venues. Each time a venue is ruled out for an event, the
+ * search records the placed events that are to blame: the event already using
+ * the venue, the events that put traffic on a corridor the venue would
+ * overflow, or the previous event of the same size. When every venue of an
+ * event has been ruled out, the search jumps straight back to the most
+ * recently placed of the events to blame for all of them, skipping the
+ * placements in between, which would only fail again in the same way
+ * (conflict-directed backjumping). The search runs on an explicit stack of
+ * frames, one per placed event, so its depth is not limited by the call
+ * stack.
+ * </p>
+ *
+ * <p>
+ * The placements to blame for such a dead end can never all be part of a safe
+ * allocation, so they are also remembered as a nogood: a set of (event, venue)
+ * pairs that cannot coexist. Before each placement the search checks the
+ * nogoods that contain it, and rules the venue out straight away if the rest
+ * of some nogood is already placed. Only nogoods of up to MAX_NOGOOD_SIZE
+ * pairs are learnt, and the store keeps at most a fixed number of them,
+ * forgetting the oldest first.
+ * </p>
+ */
+public class BackjumpingSearch {
+
+    // the default maximum number of nogoods that are remembered
+    public static final int DEFAULT_MAX_NOGOODS = 4096;
+    // the greatest number of pairs in a nogood that is learnt
+    public static final int MAX_NOGOOD_SIZE = 16;
+
+    // the problem being searched
+    private final CompiledProblem problem;
+    // the events in the order they are placed: largest first
+    private final int[] events;
+    // assignment[e] is the venue that event e is placed at, or -1
+    private final int[] assignment;
+    // owner[v] is the event placed at venue v, or -1
+    private final int[] owner;
+    // residual[c] is the capacity left on corridor c by the placed events
+    private final int[] residual;
+    // bit v % 64 of corridorVenues[c][v / 64] is set iff venue v is next to
+    // corridor c
+    private final long[][] corridorVenues;
+    // conflict[d] is a bitset of the placed events to blame for the venues
+    // ruled out for events[d] so far, and next[d] is the next venue that
+    // frame d tries events[d] at
+    private final long[][] conflict;
+    private final int[] next;
+
+    // the remembered nogoods, oldest first from position oldest
+    private final Nogood[] nogoods;
+    private int oldest;
+    private int nogoodCount;
+    // watches maps the key of each (event, venue) pair (see pair) to the
+    // nogoods that contain it (and possibly some that have been forgotten,
+    // which are dropped lazily)
+    private final Map<Long, List<Nogood>> watches;
+
+    // when set, the search gives up once this token is cancelled
+    private CancellationToken token;
+    // whether the last call to solve gave up
+    private boolean stopped;
+    // the number of nodes explored and the number of levels jumped over
+    private long nodes;
+    private long backjumps;
+
+    /*
+     * invariant: events[0 .. d - 1] are placed at distinct venues that can
+     * host them while frame d is on top of the stack, each events[i] at a
+     * venue below next[i], the rest have assignment -1, residual[c] >= 0 is
+     * the capacity of corridor c less the traffic of the placed events, and
+     * no pair of placed events is ruled out by a nogood
+     */
+
+    /**
+     * Creates a new search for the given problem, which remembers up to
+     * DEFAULT_MAX_NOGOODS nogoods.
+     *
+     * @param problem
+     *            the problem to search
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public BackjumpingSearch(CompiledProblem problem) {
+        this(problem, DEFAULT_MAX_NOGOODS);
+    }
+
+    /**
+     * Creates a new search for the given problem, which remembers up to
+     * maxNogoods nogoods.
+     *
+     * @param problem
+     *            the problem to search
+     * @param maxNogoods
+     *            the maximum number of nogoods to remember
+     * @throws NullPointerException
+     *             if problem is null
+     * @throws IllegalArgumentException
+     *             if maxNogoods is negative
+     */
+    public BackjumpingSearch(CompiledProblem problem, int maxNogoods) {
+        if (maxNogoods < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of nogoods cannot be negative.");
+        }
+        this.problem = problem;
+        int eventCount = problem.getEventCount();
+        events = problem.eventsBySizeDescending();
+        assignment = new int[eventCount];
+        Arrays.fill(assignment, -1);
+        owner = new int[problem.getVenueCount()];
+        Arrays.fill(owner, -1);
+        residual = problem.corridorCapacity.clone();
+        int words = CompiledProblem.words(problem.getVenueCount());
+        corridorVenues = new long[problem.getCorridorCount()][words];
+        for (int v = 0; v < problem.getVenueCount(); v++) {
+            for (int c : problem.venueCorridors[v]) {
+                corridorVenues[c][v >>> 6] |= 1L << v;
+            }
+        }
+        conflict = new long[eventCount][CompiledProblem.words(eventCount)];
+        next = new int[eventCount];
+        nogoods = new Nogood[maxNogoods];
+        watches = new HashMap<>();
+    }
+
+    /**
+     * Sets the token that the search polls at every node: once the token is
+     * cancelled, solve gives up. A null token means the search is never
+     * cancelled.
+     *
+     * @param token
+     *            the token to poll, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns true if the last call to solve gave up because its token was
+     * cancelled, and false otherwise.
+     *
+     * @return true iff the last search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the number of nodes of the search tree explored so far.
+     *
+     * @return the number of nodes explored
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of placements that backjumps have skipped over so
+     * far, without trying their remaining venues.
+     *
+     * @return the number of levels jumped over
+     */
+    public long getBackjumpCount() {
+        return backjumps;
+    }
+
+    /**
+     * Returns the number of nogoods currently remembered.
+     *
+     * @return the size of the nogood store
+     */
+    public int getNogoodCount() {
+        return nogoodCount;
+    }
+
+    /**
+     * Returns a copy of the current assignment, in which element e is the id
+     * of the venue that event e is placed at, or -1 if it is not placed.
+     *
+     * @return the venue id of each event
+     */
+    public int[] getAssignment() {
+        return assignment.clone();
+    }
+
+    /**
+     * Searches for a safe allocation of all of the events, stopping at the
+     * first one found. Nogoods learnt by earlier calls are kept.
+     *
+     * @return true if a safe allocation was found (and is left as the current
+     *         assignment), and false if there is none, or if the search gave
+     *         up (in which case isStopped() returns true)
+     */
+    public boolean solve() {
+        while (placedCount() > 0) {
+            unplace(events[placedCount() - 1]);
+        }
+        stopped = false;
+        return search();
+    }
+
+    /**
+     * Places the events in order on an explicit stack of frames, where frame
+     * d places events[d], and returns true if they were all placed, or false
+     * leaving none of them placed. A frame that runs out of venues is popped
+     * with a bitset of the placed events to blame for its failure (all of
+     * which are below it), and the frame below either tries its next venue
+     * or, if its event is not to blame, is popped with the same bitset.
+     */
+    private boolean search() {
+        int depth = 0; // the frame on top of the stack
+        // the events to blame for the failure of the frame popped last, or
+        // null if frame depth has just been pushed
+        long[] culprits = null;
+        while (depth >= 0) {
+            if (culprits == null) {
+                if (depth == events.length) {
+                    return true;
+                }
+                if (stopped || (token != null && token.isCancelled())) {
+                    stopped = true;
+                    // blame everything, so that no backjump skips untried
+                    // venues
+                    culprits = conflict[depth];
+                    Arrays.fill(culprits, 0);
+                    for (int d = 0; d < depth; d++) {
+                        culprits[events[d] >>> 6] |= 1L << events[d];
+                    }
+                    depth--;
+                    continue;
+                }
+                nodes++;
+                open(depth);
+            } else {
+                int event = events[depth];
+                unplace(event);
+                if (stopped) {
+                    depth--;
+                    continue;
+                }
+                if ((culprits[event >>> 6] & (1L << event)) == 0) {
+                    // this event is not to blame, so jump over it
+                    backjumps++;
+                    depth--;
+                    continue;
+                }
+                // the events to blame for the frame above are to blame here
+                culprits[event >>> 6] &= ~(1L << event);
+                long[] blame = conflict[depth];
+                for (int i = 0; i < blame.length; i++) {
+                    blame[i] |= culprits[i];
+                }
+            }
+            int venue = advance(depth);
+            if (venue >= 0) {
+                place(events[depth], venue);
+                depth++;
+                culprits = null;
+            } else {
+                learn(conflict[depth]);
+                culprits = conflict[depth];
+                depth--;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets up frame depth, which has just been pushed, to try events[depth]
+     * at each venue that can host it.
+     */
+    private void open(int depth) {
+        int event = events[depth];
+        long[] blame = conflict[depth];
+        Arrays.fill(blame, 0);
+        next[depth] = 0;
+        // events of the same size are interchangeable, so they are placed at
+        // increasing venues, and the previous one is to blame for the venues
+        // that this rules out
+        if (depth > 0 && problem.eventSizeClass[events[depth - 1]]
+                == problem.eventSizeClass[event]) {
+            int previous = events[depth - 1];
+            next[depth] = assignment[previous] + 1;
+            blame[previous >>> 6] |= 1L << previous;
+        }
+    }
+
+    /**
+     * Returns the next venue from next[depth] on that can host events[depth]
+     * and is not ruled out for it, adding the events to blame for the venues
+     * passed over to conflict[depth], and moves next[depth] past it, or
+     * returns -1 if there is none.
+     */
+    private int advance(int depth) {
+        int event = events[depth];
+        long[] hosts = problem.hostable[problem.eventSizeClass[event]];
+        int first = next[depth]; // the first venue that may be tried
+        for (int w = first >>> 6; w < hosts.length; w++) {
+            long bits = w == first >>> 6 ? hosts[w] & (-1L << first)
+                    : hosts[w];
+            while (bits != 0) {
+                int venue = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (!rulesOut(event, venue, conflict[depth])) {
+                    next[depth] = venue + 1;
+                    return venue;
+                }
+            }
+        }
+        next[depth] = hosts.length << 6;
+        return -1;
+    }
+
+    /**
+     * Returns true, adding the placed events to blame to the given bitset, if
+     * the given venue is used, would overflow a corridor or completes a
+     * nogood, and false otherwise.
+     */
+    private boolean rulesOut(int event, int venue, long[] blame) {
+        if (owner[venue] >= 0) {
+            blame[owner[venue] >>> 6] |= 1L << owner[venue];
+            return true;
+        }
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            if (load[k] > residual[corridors[k]]) {
+                // blame the events that put traffic on the corridor
+                long[] next = corridorVenues[corridors[k]];
+                for (int w = 0; w < next.length; w++) {
+                    long bits = next[w];
+                    while (bits != 0) {
+                        int v = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if (owner[v] >= 0) {
+                            blame[owner[v] >>> 6] |= 1L << owner[v];
+                        }
+                        bits &= bits - 1;
+                    }
+                }
+                return true;
+            }
+        }
+        List<Nogood> watched = watches.get(pair(event, venue));
+        if (watched == null) {
+            return false;
+        }
+        int i = 0; // the position in watched being checked
+        while (i < watched.size()) {
+            Nogood nogood = watched.get(i);
+            if (nogood.forgotten) {
+                watched.set(i, watched.get(watched.size() - 1));
+                watched.remove(watched.size() - 1);
+                continue;
+            }
+            if (nogood.holdsWith(event, venue)) {
+                for (int e : nogood.events) {
+                    if (e != event) {
+                        blame[e >>> 6] |= 1L << e;
+                    }
+                }
+                return true;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the placements of the events in the given bitset as a nogood,
+     * if there are few enough of them and the store can hold any nogoods.
+     */
+    private void learn(long[] blame) {
+        int size = 0; // the number of events to blame
+        for (long word : blame) {
+            size += Long.bitCount(word);
+        }
+        if (size == 0 || size > MAX_NOGOOD_SIZE || nogoods.length == 0) {
+            return;
+        }
+        int[] nogoodEvents = new int[size];
+        int[] nogoodVenues = new int[size];
+        int n = 0; // the number of pairs added so far
+        for (int w = 0; w < blame.length; w++) {
+            long bits = blame[w];
+            while (bits != 0) {
+                int e = (w << 6) + Long.numberOfTrailingZeros(bits);
+                nogoodEvents[n] = e;
+                nogoodVenues[n++] = assignment[e];
+                bits &= bits - 1;
+            }
+        }
+        if (nogoodCount == nogoods.length) {
+            // forget the oldest nogood to make room
+            nogoods[oldest].forgotten = true;
+            nogoods[oldest] = null;
+            oldest = (oldest + 1) % nogoods.length;
+            nogoodCount--;
+        }
+        Nogood nogood = new Nogood(nogoodEvents, nogoodVenues);
+        nogoods[(oldest + nogoodCount++) % nogoods.length] = nogood;
+        for (int i = 0; i < size; i++) {
+            Long key = pair(nogoodEvents[i], nogoodVenues[i]);
+            List<Nogood> watched = watches.get(key);
+            if (watched == null) {
+                watched = new ArrayList<>();
+                watches.put(key, watched);
+            }
+            watched.add(nogood);
+        }
+    }
+
+    /**
+     * Returns the key of the pair of the given event and venue.
+     */
+    private static long pair(int event, int venue) {
+        return ((long) event << 32) | venue;
+    }
+
+    /**
+     * Places the given event at the given venue, which must be free and able
+     * to take its traffic.
+     */
+    private void place(int event, int venue) {
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            residual[corridors[k]] -= load[k];
+        }
+        owner[venue] = event;
+        assignment[event] = venue;
+    }
+
+    /**
+     * Removes the given placed event from its venue.
+     */
+    private void unplace(int event) {
+        int venue = assignment[event];
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            residual[corridors[k]] += load[k];
+        }
+        owner[venue] = -1;
+        assignment[event] = -1;
+    }
+
+    /**
+     * Returns the number of events that are placed.
+     */
+    private int placedCount() {
+        int count = 0; // the number of placed events found so far
+        while (count < events.length && assignment[events[count]] >= 0) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A set of (event, venue) pairs that are not all part of any safe
+     * allocation.
+     */
+    private class Nogood {
+
+        private final int[] events;
+        private final int[] venues;
+        // whether the nogood has been dropped from the store
+        private boolean forgotten;
+
+        Nogood(int[] events, int[] venues) {
+            this.events = events;
+            this.venues = venues;
+        }
+
+        /**
+         * Returns true if placing the given event at the given venue would
+         * place every pair of this nogood.
+         */
+        boolean holdsWith(int event, int venue) {
+            for (int i = 0; i < events.length; i++) {
+                int placedAt = events[i] == event ? venue
+                        : assignment[events[i]];
+                if (placedAt != venues[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
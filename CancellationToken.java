@@ -0,0 +1,43 @@
+package planner;
+
+/**
+ * <p>
+ * A thread-safe flag that asks one or more running searches to give up.
+ * </p>
+ *
+ * <p>
+ * A token starts out not cancelled, and once cancelled stays cancelled.
+ * Searches poll the token as they run, so cancelling it from another thread
+ * stops them promptly.
+ * </p>
+ */
+public class CancellationToken {
+
+    // whether the token has been cancelled
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new token that has not been cancelled.
+     */
+    public CancellationToken() {
+        cancelled = false;
+    }
+
+    /**
+     * Cancels the token. Cancelling a token more than once has no further
+     * effect.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if the token has been cancelled, and false otherwise.
+     *
+     * @return true iff cancel has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,338 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A maximum matching of the events of a compiled problem to its venues, in
+ * which each event is matched to at most one distinct venue that can host it.
+ * Traffic is ignored.
+ * </p>
+ *
+ * <p>
+ * Every safe allocation of the events is a matching of this kind, so if the
+ * maximum matching does not cover every event then there is no safe
+ * allocation. The matching is found with the Hopcroft-Karp algorithm, in
+ * O(sqrt(E) * E * V) time for E events and V venues, which is a cheap way to
+ * reject impossible problems before any traffic search is started. The venues
+ * the events are matched to are also a good first guess for that search.
+ * </p>
+ *
+ * <p>
+ * Given the dominance order of the venues (see VenueDominance), the matching
+ * can also be closed under dominance: events are moved from the venues they
+ * are matched to onto free venues that dominate them, until every venue that
+ * dominates a matched venue is matched too. Such a matching is what a search
+ * that prunes by dominance expects its allocation to look like.
+ * </p>
+ */
+public class CapacityMatching {
+
+    // the value of distance for events that are not reachable in a phase
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    // the problem whose events are matched
+    private final CompiledProblem problem;
+    // eventMatch[e] is the venue event e is matched to, or -1
+    private final int[] eventMatch;
+    // venueMatch[v] is the event venue v is matched to, or -1
+    private final int[] venueMatch;
+    // the number of events that are matched
+    private int matched;
+
+    // the layer of each event in the current phase's breadth-first search
+    private final int[] distance;
+    // next[e] is the next venue to try from event e in the current phase
+    private final int[] next;
+    // the events of the alternating path being extended by augment
+    private final int[] path;
+
+    /*
+     * invariant: eventMatch and venueMatch describe the same injective
+     * matching of events to venues that can host them, of size matched
+     */
+
+    /**
+     * Computes a maximum matching of the events of the given problem to venues
+     * that can host them.
+     *
+     * @param problem
+     *            the problem whose events are matched
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public CapacityMatching(CompiledProblem problem) {
+        this(problem, null);
+    }
+
+    /**
+     * Computes a maximum matching of the events of the given problem to venues
+     * that can host them, and closes it under the given dominance order of
+     * the venues, unless that is null. Every venue that dominates a matched
+     * venue is then matched too.
+     *
+     * @param problem
+     *            the problem whose events are matched
+     * @param dominance
+     *            the dominance order of the venues of the problem, or null
+     * @throws NullPointerException
+     *             if problem is null
+     * @throws IllegalArgumentException
+     *             if dominance is not for the same number of venues as the
+     *             problem
+     */
+    public CapacityMatching(CompiledProblem problem,
+            VenueDominance dominance) {
+        if (dominance != null && dominance.getVenueCount() != problem
+                .getVenueCount()) {
+            throw new IllegalArgumentException(
+                    "The dominance order is for a different set of venues.");
+        }
+        this.problem = problem;
+        eventMatch = new int[problem.getEventCount()];
+        venueMatch = new int[problem.getVenueCount()];
+        Arrays.fill(eventMatch, -1);
+        Arrays.fill(venueMatch, -1);
+        distance = new int[problem.getEventCount()];
+        next = new int[problem.getEventCount()];
+        path = new int[problem.getEventCount()];
+        while (layer()) {
+            Arrays.fill(next, 0);
+            for (int e = 0; e < eventMatch.length; e++) {
+                if (eventMatch[e] < 0 && augment(e)) {
+                    matched++;
+                }
+            }
+        }
+        if (dominance != null) {
+            close(dominance);
+        }
+    }
+
+    /**
+     * Returns the number of events in the maximum matching.
+     *
+     * @return the number of matched events
+     */
+    public int getMatchedCount() {
+        return matched;
+    }
+
+    /**
+     * Returns true if every event is matched to a venue, and false otherwise.
+     * If this method returns false there is no safe allocation of the events.
+     *
+     * @return true iff every event is matched
+     */
+    public boolean isComplete() {
+        return matched == eventMatch.length;
+    }
+
+    /**
+     * Returns the venue that the given event is matched to, or -1 if it is not
+     * matched.
+     *
+     * @param event
+     *            the id of the event
+     * @return the id of the venue the event is matched to, or -1
+     */
+    public int getVenue(int event) {
+        return eventMatch[event];
+    }
+
+    /**
+     * <p>
+     * Returns a venue order that follows the matching, and then tries the
+     * other venues in the order given by fallback.
+     * </p>
+     *
+     * <p>
+     * A search that breaks symmetry may not place an event at the very venue
+     * it is matched to, since events of the same size are placed at
+     * increasing venues and only the lowest free venue of each class is
+     * tried. Since such events and venues are interchangeable, the order
+     * follows the matching up to symmetry instead: an event is preferably
+     * placed at a venue of a class that the matching places more events of
+     * its class at than the search has so far, lowest venue first. Placing
+     * events in this way never leaves an event without such a venue, so the
+     * first descent of the search reaches an allocation that is as good as
+     * the matching, unless the traffic on some corridor overflows.
+     * </p>
+     *
+     * <p>
+     * Dominance is defined on venue classes, so if the matching is closed
+     * under dominance, every free venue that dominates a venue used by the
+     * search is of a class whose venues are all matched. There are then never
+     * more such venues than events left to place, so dominance pruning (see
+     * AllocationSearch.setDominance) does not reject any placement of that
+     * first descent either.
+     * </p>
+     *
+     * @param fallback
+     *            the order of the venues that the matching does not prefer
+     * @return a venue order that prefers the matched venues
+     * @throws NullPointerException
+     *             if fallback is null
+     */
+    public VenueOrder preferMatched(final VenueOrder fallback) {
+        if (fallback == null) {
+            throw new NullPointerException("The fallback order cannot be null.");
+        }
+        // matchedCount[k * classes + c] is the number of events of class k
+        // that are matched to venues of class c
+        final int classes = problem.venueClassCount;
+        final int[] matchedCount = new int[problem.sizes.length * classes];
+        for (int e = 0; e < eventMatch.length; e++) {
+            if (eventMatch[e] >= 0) {
+                matchedCount[problem.eventSizeClass[e] * classes
+                        + problem.venueClass[eventMatch[e]]]++;
+            }
+        }
+        final int venueCount = problem.getVenueCount();
+        return new VenueOrder() {
+            @Override
+            public int score(AllocationSearch search, int event, int venue) {
+                int eventClass = problem.eventSizeClass[event];
+                int venueClass = problem.venueClass[venue];
+                if (search.countPlaced(eventClass, venueClass) < matchedCount[
+                        eventClass * classes + venueClass]) {
+                    return Integer.MIN_VALUE + venue;
+                }
+                return Math.max(fallback.score(search, event, venue),
+                        Integer.MIN_VALUE + venueCount);
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Moves matched events onto free venues that dominate their venues, until
+     * every venue that dominates a matched venue is matched. A venue that
+     * dominates another can host every event it can, so the matching stays a
+     * matching of the same size.
+     * </p>
+     *
+     * <p>
+     * If a dominates b then every dominator of a dominates b, and b does not
+     * dominate a, so a has strictly fewer dominators than b. The venues are
+     * therefore visited in ascending order of their number of dominators, and
+     * an event at b is moved to the free dominator of b with the fewest
+     * dominators. That venue has no free dominator itself (which would be a
+     * free dominator of b with fewer), and the only venue freed by the move
+     * is b, which dominates none of the venues visited before it. So every
+     * visited venue that is matched keeps all of its dominators matched, and
+     * a single pass over the sorted venues is enough.
+     * </p>
+     */
+    private void close(VenueDominance dominance) {
+        int[][] dominators = dominance.dominators;
+        long[] byDominators = new long[venueMatch.length];
+        for (int v = 0; v < venueMatch.length; v++) {
+            byDominators[v] = ((long) dominators[v].length << 32) | v;
+        }
+        Arrays.sort(byDominators);
+        for (long key : byDominators) {
+            int b = (int) key;
+            int event = venueMatch[b];
+            if (event < 0) {
+                continue;
+            }
+            int target = -1; // the free dominator of b with fewest dominators
+            for (int a : dominators[b]) {
+                if (venueMatch[a] < 0 && (target < 0
+                        || dominators[a].length < dominators[target].length)) {
+                    target = a;
+                }
+            }
+            if (target >= 0) {
+                venueMatch[b] = -1;
+                venueMatch[target] = event;
+                eventMatch[event] = target;
+            }
+        }
+    }
+
+    /**
+     * Computes the layer of each event in a breadth-first search that
+     * alternates between unmatched and matched edges, starting from the
+     * unmatched events. Returns true if some free venue is reachable (i.e. an
+     * augmenting path exists), and false otherwise.
+     */
+    private boolean layer() {
+        int[] queue = new int[eventMatch.length];
+        int head = 0; // the next position in queue to visit
+        int tail = 0; // the next free position in queue
+        for (int e = 0; e < eventMatch.length; e++) {
+            if (eventMatch[e] < 0) {
+                distance[e] = 0;
+                queue[tail++] = e;
+            } else {
+                distance[e] = UNREACHED;
+            }
+        }
+        boolean found = false; // whether a free venue has been reached
+        while (head < tail) {
+            int e = queue[head++];
+            for (int v = 0; v < venueMatch.length; v++) {
+                if (!problem.canHost(e, v)) {
+                    continue;
+                }
+                int other = venueMatch[v];
+                if (other < 0) {
+                    found = true;
+                } else if (distance[other] == UNREACHED) {
+                    distance[other] = distance[e] + 1;
+                    queue[tail++] = other;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Looks for an augmenting path from the given event along the layers
+     * computed by layer(), and flips the matching along it if one is found.
+     * The path is extended depth-first on an explicit stack (path), since it
+     * can be as long as there are events.
+     */
+    private boolean augment(int root) {
+        int depth = 0; // the position of the last event on the path
+        path[0] = root;
+        while (depth >= 0) {
+            int e = path[depth];
+            boolean extended = false; // whether the path was extended
+            for (; next[e] < venueMatch.length; next[e]++) {
+                int v = next[e];
+                if (!problem.canHost(e, v)) {
+                    continue;
+                }
+                int other = venueMatch[v];
+                if (other < 0) {
+                    // flip the matching along the path, whose events are
+                    // each matched to the venue next points to
+                    for (int d = depth; d >= 0; d--) {
+                        int u = path[d];
+                        eventMatch[u] = next[u];
+                        venueMatch[next[u]] = u;
+                        next[u]++;
+                    }
+                    return true;
+                }
+                if (distance[other] == distance[e] + 1) {
+                    path[++depth] = other;
+                    extended = true;
+                    break;
+                }
+            }
+            if (!extended) {
+                // there is no augmenting path through e in this phase
+                distance[e] = UNREACHED;
+                if (--depth >= 0) {
+                    next[path[depth]]++;
+                }
+            }
+        }
+        return false;
+    }
+
+}
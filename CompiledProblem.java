@@ -0,0 +1,553 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable, compiled form of the problem of allocating a list of events to
+ * a list of venues, in which events, venues and corridors are identified by
+ * dense integer ids and all traffic is held in primitive arrays.
+ * </p>
+ *
+ * <p>
+ * Event i is events.get(i) and venue j is venues.get(j) for the lists the
+ * problem was compiled from. Corridor ids are assigned to every corridor on
+ * which some venue generates traffic, in the natural ordering of corridors.
+ * </p>
+ *
+ * <p>
+ * The traffic that each event generates at each venue that can host it is
+ * computed once, when the problem is compiled, using exactly the same integer
+ * arithmetic as Venue.getTraffic. Because that traffic only depends on the size
+ * of the event, it is stored once per distinct event size, and only for the
+ * corridors that each venue generates traffic on.
+ * </p>
+ *
+ * <p>
+ * Everything that only depends on the venues is compiled separately from the
+ * events, so that withEvents can compile many problems with the same venues
+ * and different events without redoing any of the work on the venues.
+ * </p>
+ */
+public class CompiledProblem {
+
+    // the events, venues and corridors of the problem, indexed by their ids
+    private final List<Event> events;
+    private final List<Venue> venues;
+    private final List<Corridor> corridors;
+
+    // eventSize[e] is the size of event e
+    final int[] eventSize;
+    // venueCapacity[v] is the capacity of venue v
+    final int[] venueCapacity;
+    // corridorCapacity[c] is the capacity of corridor c
+    final int[] corridorCapacity;
+    // venueTraffic[v][c] is the traffic venue v generates on corridor c when
+    // it hosts an event of maximum size
+    final int[][] venueTraffic;
+    // venueCorridors[v] are the ids (ascending) of the corridors on which
+    // venue v generates traffic
+    final int[][] venueCorridors;
+    // eventSizeClass[e] is the index of the size of event e in sizes
+    final int[] eventSizeClass;
+    // the distinct event sizes, in ascending order
+    final int[] sizes;
+    // venueClass[v] is the equivalence class of venue v: venues are
+    // equivalent iff they have the same capacity and capacity traffic
+    final int[] venueClass;
+    // the number of venue equivalence classes
+    final int venueClassCount;
+    // previousInClass[v] is the highest venue below v in the same class as v,
+    // or -1 if there is none
+    final int[] previousInClass;
+    // hostable[s] is a bitset (64 venues to a word, venue v at bit v % 64 of
+    // word v / 64) of the venues that can host an event of size sizes[s]
+    final long[][] hostable;
+    // sizeLoad[s][v][k] is the traffic that an event of size sizes[s] generates
+    // at venue v on corridor venueCorridors[v][k], or sizeLoad[s][v] is null
+    // if venue v cannot host an event of that size
+    final int[][][] sizeLoad;
+
+    /*
+     * invariant: all of the arrays above are non-null and consistent with
+     * events, venues and corridors as described
+     */
+
+    /**
+     * Compiles the problem of allocating the given events to the given venues.
+     *
+     * @param events
+     *            the events to be allocated
+     * @param venues
+     *            the venues that the events can be allocated to
+     * @throws NullPointerException
+     *             if events or venues is null, or if either contains null
+     */
+    public CompiledProblem(List<Event> events, List<Venue> venues) {
+        this(new CompiledProblem(venues), events);
+    }
+
+    /**
+     * Compiles the problem of allocating no events to the given venues.
+     */
+    private CompiledProblem(List<Venue> venues) {
+        this.events = Collections.emptyList();
+        this.venues = Collections.unmodifiableList(new ArrayList<>(venues));
+
+        // assign corridor ids in the natural ordering of corridors
+        Traffic[] capacityTraffic = new Traffic[venues.size()];
+        TreeMap<Corridor, Integer> corridorIds = new TreeMap<>();
+        for (int v = 0; v < venues.size(); v++) {
+            capacityTraffic[v] = this.venues.get(v).getCapacityTraffic();
+            for (Corridor c : capacityTraffic[v].getCorridorsWithTraffic()) {
+                corridorIds.put(c, 0);
+            }
+        }
+        corridors = Collections.unmodifiableList(new ArrayList<>(corridorIds
+                .keySet()));
+        corridorCapacity = new int[corridors.size()];
+        for (int c = 0; c < corridors.size(); c++) {
+            corridorIds.put(corridors.get(c), c);
+            corridorCapacity[c] = corridors.get(c).getCapacity();
+        }
+
+        venueCapacity = new int[venues.size()];
+        venueTraffic = new int[venues.size()][corridors.size()];
+        venueCorridors = new int[venues.size()][];
+        for (int v = 0; v < venues.size(); v++) {
+            venueCapacity[v] = this.venues.get(v).getCapacity();
+            Set<Corridor> used = capacityTraffic[v].getCorridorsWithTraffic();
+            venueCorridors[v] = new int[used.size()];
+            int k = 0; // the next free position in venueCorridors[v]
+            for (Corridor c : used) {
+                int id = corridorIds.get(c);
+                venueTraffic[v][id] = capacityTraffic[v].getTraffic(c);
+                venueCorridors[v][k++] = id;
+            }
+            Arrays.sort(venueCorridors[v]);
+        }
+
+        // group venues that have the same capacity and capacity traffic
+        venueClass = new int[venues.size()];
+        Map<VenueKey, Integer> classes = new HashMap<>();
+        for (int v = 0; v < venues.size(); v++) {
+            VenueKey key = new VenueKey(venueCapacity[v], venueTraffic[v]);
+            Integer existing = classes.get(key);
+            if (existing == null) {
+                existing = classes.size();
+                classes.put(key, existing);
+            }
+            venueClass[v] = existing;
+        }
+        venueClassCount = classes.size();
+        previousInClass = new int[venues.size()];
+        int[] lastInClass = new int[venueClassCount];
+        Arrays.fill(lastInClass, -1);
+        for (int v = 0; v < venues.size(); v++) {
+            previousInClass[v] = lastInClass[venueClass[v]];
+            lastInClass[venueClass[v]] = v;
+        }
+
+        eventSize = new int[0];
+        sizes = new int[0];
+        eventSizeClass = new int[0];
+        hostable = new long[0][];
+        sizeLoad = new int[0][][];
+    }
+
+    /**
+     * Compiles the problem of allocating the given events to the venues of
+     * the given problem, sharing its compiled venues and corridors.
+     */
+    private CompiledProblem(CompiledProblem base, List<Event> events) {
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        venues = base.venues;
+        corridors = base.corridors;
+        corridorCapacity = base.corridorCapacity;
+        venueCapacity = base.venueCapacity;
+        venueTraffic = base.venueTraffic;
+        venueCorridors = base.venueCorridors;
+        venueClass = base.venueClass;
+        venueClassCount = base.venueClassCount;
+        previousInClass = base.previousInClass;
+
+        // the distinct event sizes
+        TreeSet<Integer> distinctSizes = new TreeSet<>();
+        eventSize = new int[events.size()];
+        for (int e = 0; e < events.size(); e++) {
+            eventSize[e] = this.events.get(e).getSize();
+            distinctSizes.add(eventSize[e]);
+        }
+        sizes = new int[distinctSizes.size()];
+        int s = 0; // the next free position in sizes
+        for (int size : distinctSizes) {
+            sizes[s++] = size;
+        }
+        eventSizeClass = new int[events.size()];
+        for (int e = 0; e < events.size(); e++) {
+            eventSizeClass[e] = Arrays.binarySearch(sizes, eventSize[e]);
+        }
+
+        sizeLoad = new int[sizes.length][venues.size()][];
+        hostable = new long[sizes.length][words(venues.size())];
+        for (s = 0; s < sizes.length; s++) {
+            for (int v = 0; v < venues.size(); v++) {
+                if (sizes[s] > venueCapacity[v]) {
+                    continue;
+                }
+                hostable[s][v >>> 6] |= 1L << v;
+                int[] ids = venueCorridors[v];
+                int[] load = new int[ids.length];
+                for (int k = 0; k < ids.length; k++) {
+                    // the same integer arithmetic as Venue.getTraffic
+                    load[k] = (sizes[s] * venueTraffic[v][ids[k]])
+                            / venueCapacity[v];
+                }
+                sizeLoad[s][v] = load;
+            }
+        }
+    }
+
+    /**
+     * Copies the given problem, with the given corridor capacities.
+     */
+    private CompiledProblem(CompiledProblem base, int[] corridorCapacity) {
+        events = base.events;
+        venues = base.venues;
+        corridors = base.corridors;
+        this.corridorCapacity = corridorCapacity;
+        venueCapacity = base.venueCapacity;
+        venueTraffic = base.venueTraffic;
+        venueCorridors = base.venueCorridors;
+        venueClass = base.venueClass;
+        venueClassCount = base.venueClassCount;
+        previousInClass = base.previousInClass;
+        eventSize = base.eventSize;
+        sizes = base.sizes;
+        eventSizeClass = base.eventSizeClass;
+        hostable = base.hostable;
+        sizeLoad = base.sizeLoad;
+    }
+
+    /**
+     * Compiles the problem of allocating the given events to the venues of
+     * this problem. Only the events are compiled: the new problem shares the
+     * compiled venues and corridors of this one.
+     *
+     * @param events
+     *            the events to be allocated
+     * @return the compiled problem of allocating events to the venues of this
+     *         problem
+     * @throws NullPointerException
+     *             if events is null or contains null
+     */
+    public CompiledProblem withEvents(List<Event> events) {
+        return new CompiledProblem(this, events);
+    }
+
+    /**
+     * Returns this problem with only the capacities of the given corridors
+     * kept: every other corridor is given a capacity that the traffic of all
+     * of the venues together cannot exceed, so that it is ignored. Everything
+     * else is shared with this problem.
+     */
+    CompiledProblem withCorridors(List<Integer> kept) {
+        int[] capacity = new int[corridorCapacity.length];
+        for (int c = 0; c < capacity.length; c++) {
+            long total = 0; // the traffic of every venue at capacity
+            for (int v = 0; v < venueTraffic.length; v++) {
+                total += venueTraffic[v][c];
+            }
+            capacity[c] = (int) Math.min(total, Integer.MAX_VALUE);
+        }
+        for (int c : kept) {
+            capacity[c] = corridorCapacity[c];
+        }
+        return new CompiledProblem(this, capacity);
+    }
+
+    /**
+     * Returns the number of events in the problem.
+     *
+     * @return the number of events
+     */
+    public int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * Returns the number of venues in the problem.
+     *
+     * @return the number of venues
+     */
+    public int getVenueCount() {
+        return venues.size();
+    }
+
+    /**
+     * Returns the number of corridors on which some venue generates traffic.
+     *
+     * @return the number of corridors
+     */
+    public int getCorridorCount() {
+        return corridors.size();
+    }
+
+    /**
+     * Returns the event with the given id.
+     *
+     * @param event
+     *            the id of the event
+     * @return the event with id event
+     * @throws IndexOutOfBoundsException
+     *             if there is no event with the given id
+     */
+    public Event getEvent(int event) {
+        return events.get(event);
+    }
+
+    /**
+     * Returns the venue with the given id.
+     *
+     * @param venue
+     *            the id of the venue
+     * @return the venue with id venue
+     * @throws IndexOutOfBoundsException
+     *             if there is no venue with the given id
+     */
+    public Venue getVenue(int venue) {
+        return venues.get(venue);
+    }
+
+    /**
+     * Returns the corridor with the given id.
+     *
+     * @param corridor
+     *            the id of the corridor
+     * @return the corridor with id corridor
+     * @throws IndexOutOfBoundsException
+     *             if there is no corridor with the given id
+     */
+    public Corridor getCorridor(int corridor) {
+        return corridors.get(corridor);
+    }
+
+    /**
+     * Returns the events of the problem, in order of their ids.
+     *
+     * @return an unmodifiable list of the events
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the venues of the problem, in order of their ids.
+     *
+     * @return an unmodifiable list of the venues
+     */
+    public List<Venue> getVenues() {
+        return venues;
+    }
+
+    /**
+     * Returns the capacity of the given corridor.
+     *
+     * @param corridor
+     *            the id of the corridor
+     * @return the capacity of the corridor
+     * @throws IndexOutOfBoundsException
+     *             if there is no corridor with the given id
+     */
+    public int getCorridorCapacity(int corridor) {
+        return corridorCapacity[corridor];
+    }
+
+    /**
+     * Returns the traffic that the given venue generates on the given corridor
+     * when it hosts an event of maximum size.
+     *
+     * @param venue
+     *            the id of the venue
+     * @param corridor
+     *            the id of the corridor
+     * @return the traffic generated on the corridor by an event of size
+     *         capacity at the venue
+     * @throws IndexOutOfBoundsException
+     *             if there is no venue or corridor with the given id
+     */
+    public int getVenueTraffic(int venue, int corridor) {
+        return venueTraffic[venue][corridor];
+    }
+
+    /**
+     * Returns the equivalence class of the given venue. Two venues are in the
+     * same class iff they have the same capacity and generate the same
+     * traffic on every corridor for an event of maximum size, so that they are
+     * interchangeable in any allocation. Classes are numbered from 0 in order
+     * of their first venue.
+     *
+     * @param venue
+     *            the id of the venue
+     * @return the equivalence class of the venue
+     * @throws IndexOutOfBoundsException
+     *             if there is no venue with the given id
+     */
+    public int getVenueClass(int venue) {
+        return venueClass[venue];
+    }
+
+    /**
+     * Returns the equivalence class of the given event. Two events are in the
+     * same class iff they have the same size, so that they are interchangeable
+     * in any allocation (apart from their names). Classes are numbered from 0
+     * in ascending order of event size.
+     *
+     * @param event
+     *            the id of the event
+     * @return the equivalence class of the event
+     * @throws IndexOutOfBoundsException
+     *             if there is no event with the given id
+     */
+    public int getEventClass(int event) {
+        return eventSizeClass[event];
+    }
+
+    /**
+     * Returns true if the given venue can host the given event.
+     *
+     * @param event
+     *            the id of the event
+     * @param venue
+     *            the id of the venue
+     * @return true iff getVenue(venue).canHost(getEvent(event))
+     * @throws IndexOutOfBoundsException
+     *             if there is no event or venue with the given id
+     */
+    public boolean canHost(int event, int venue) {
+        return eventSize[event] <= venueCapacity[venue];
+    }
+
+    /**
+     * Returns the traffic that hosting the given event at the given venue
+     * generates on the given corridor.
+     *
+     * @param event
+     *            the id of the event
+     * @param venue
+     *            the id of the venue
+     * @param corridor
+     *            the id of the corridor
+     * @return getVenue(venue).getTraffic(getEvent(event)).getTraffic(
+     *         getCorridor(corridor))
+     * @throws IllegalArgumentException
+     *             if the venue cannot host the event
+     * @throws IndexOutOfBoundsException
+     *             if there is no event, venue or corridor with the given id
+     */
+    public int getLoad(int event, int venue, int corridor) {
+        if (!canHost(event, venue)) {
+            throw new IllegalArgumentException(
+                    "The size of the event cannot exceed the venue's capacity");
+        }
+        int k = Arrays.binarySearch(venueCorridors[venue], corridor);
+        return k < 0 ? 0 : loads(event, venue)[k];
+    }
+
+    /**
+     * Returns the traffic that hosting event at venue generates on each of the
+     * corridors venueCorridors[venue] (in the same order), or null if the
+     * venue cannot host the event. The returned array must not be modified.
+     */
+    int[] loads(int event, int venue) {
+        return sizeLoad[eventSizeClass[event]][venue];
+    }
+
+    /**
+     * Returns the ids of the events in descending order of size, and in
+     * ascending order of id among events of the same size.
+     */
+    int[] eventsBySizeDescending() {
+        // next[s] is the next position of an event of size class s, and the
+        // classes are laid out from the largest down
+        int[] next = new int[sizes.length];
+        for (int e = 0; e < eventSizeClass.length; e++) {
+            next[eventSizeClass[e]]++;
+        }
+        int position = 0; // the position of the first event of class s
+        for (int s = sizes.length - 1; s >= 0; s--) {
+            int count = next[s];
+            next[s] = position;
+            position += count;
+        }
+        int[] result = new int[eventSizeClass.length];
+        for (int e = 0; e < eventSizeClass.length; e++) {
+            result[next[eventSizeClass[e]]++] = e;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of 64-bit words in a bitset of the given number of
+     * venues.
+     */
+    static int words(int venues) {
+        return (venues + 63) >>> 6;
+    }
+
+    /**
+     * Returns the allocation of events to venues described by the given
+     * assignment, where assignment[e] is the id of the venue that event e is
+     * allocated to, or a negative number if event e is not allocated.
+     *
+     * @param assignment
+     *            the venue id of each event
+     * @return the allocation of events to venues described by assignment
+     * @throws NullPointerException
+     *             if assignment is null
+     * @throws IndexOutOfBoundsException
+     *             if assignment refers to a venue that is not in the problem
+     */
+    public Map<Event, Venue> toAllocation(int[] assignment) {
+        Map<Event, Venue> allocation = new HashMap<>();
+        for (int e = 0; e < assignment.length; e++) {
+            if (assignment[e] >= 0) {
+                allocation.put(events.get(e), venues.get(assignment[e]));
+            }
+        }
+        return allocation;
+    }
+
+    /**
+     * The capacity and capacity traffic of a venue, used to group equivalent
+     * venues.
+     */
+    private static class VenueKey {
+
+        // the capacity of the venue
+        private final int capacity;
+        // the traffic the venue generates on each corridor at capacity
+        private final int[] traffic;
+
+        VenueKey(int capacity, int[] traffic) {
+            this.capacity = capacity;
+            this.traffic = traffic;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof VenueKey)) {
+                return false;
+            }
+            VenueKey other = (VenueKey) object; // the key to compare
+            return capacity == other.capacity && Arrays.equals(traffic,
+                    other.traffic);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * capacity + Arrays.hashCode(traffic);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Finds a minimal infeasible core (see InfeasibleCore) of a problem that has
+ * no safe allocation.
+ * </p>
+ *
+ * <p>
+ * The core is found by QuickXplain: the candidates are split in half, the
+ * part of the core in the second half is found with the first half held in
+ * the background, and then the part in the first half is found with just
+ * that held in the background. A half is dropped with one check as soon as
+ * the background alone is infeasible, so a core of k out of n candidates
+ * takes O(k log(n / k)) checks rather than one per candidate, and most of
+ * them are on small subproblems. Candidates earlier in the order are kept
+ * in the background longer, so the core favours them.
+ * </p>
+ *
+ * <p>
+ * The events are explained first, largest first, each check being a solve
+ * of the events with the compiled venues of the problem (see
+ * Allocator.allocateFirst), which rejects most infeasible subsets by
+ * matching capacities alone. The corridors are then explained in the same
+ * way for the events of the core, each check ignoring the capacities of the
+ * corridors that are not in the subset (see CompiledProblem.withCorridors),
+ * so the venues are compiled only once.
+ * </p>
+ */
+public class ConflictExplainer {
+
+    /**
+     * A set of candidates for a core, some subsets of which are infeasible.
+     */
+    private interface Oracle {
+
+        /**
+         * Returns whether the given candidates can all be satisfied at once.
+         */
+        boolean feasible(List<Integer> candidates);
+
+    }
+
+    // the problem being explained
+    private final CompiledProblem problem;
+    // the dominance order of the venues of the problem, shared by the checks
+    // of the events
+    private final VenueDominance dominance;
+    // the number of feasibility checks made so far
+    private int solveCount;
+
+    /*
+     * invariant: problem != null && dominance is the dominance order of the
+     * venues of problem && solveCount >= 0
+     */
+
+    /**
+     * Creates a new explainer of the given problem.
+     */
+    private ConflictExplainer(CompiledProblem problem) {
+        this.problem = problem;
+        dominance = new VenueDominance(problem);
+    }
+
+    /**
+     * Returns a minimal infeasible core of the problem of allocating events to
+     * venues, or null if there is a safe allocation of events to venues.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns null if there is a safe allocation of events to venues,
+     *         and otherwise an infeasible core whose events are a subset of
+     *         events that cannot be safely allocated to venues, though each
+     *         of its proper subsets can be, and whose corridors are a minimal
+     *         set of corridors whose capacities alone keep them from being.
+     */
+    public static InfeasibleCore explain(List<Event> events,
+            List<Venue> venues) {
+        return new ConflictExplainer(new CompiledProblem(events, venues))
+                .explain();
+    }
+
+    /**
+     * Returns a minimal infeasible core of the problem, or null if it has a
+     * safe allocation.
+     */
+    private InfeasibleCore explain() {
+        // the events, largest first
+        List<Integer> order = new ArrayList<>(problem.getEventCount());
+        for (int e : problem.eventsBySizeDescending()) {
+            order.add(e);
+        }
+        Oracle eventOracle = new Oracle() {
+            @Override
+            public boolean feasible(List<Integer> candidates) {
+                return Allocator.allocateFirst(problem.withEvents(events(
+                        candidates)), dominance) != null;
+            }
+        };
+        List<Integer> eventCore = quickXplain(eventOracle, order);
+        if (eventCore == null) {
+            return null;
+        }
+        Collections.sort(eventCore);
+        List<Event> coreEvents = events(eventCore);
+        // the core events with the compiled venues, whose corridors each
+        // check restricts
+        final CompiledProblem core = problem.withEvents(coreEvents);
+
+        // the corridors, in their natural ordering
+        List<Integer> corridors = new ArrayList<>();
+        for (int c = 0; c < problem.getCorridorCount(); c++) {
+            corridors.add(c);
+        }
+        Oracle corridorOracle = new Oracle() {
+            @Override
+            public boolean feasible(List<Integer> candidates) {
+                return Allocator.allocateFirst(core.withCorridors(candidates),
+                        dominance) != null;
+            }
+        };
+        // the core events are infeasible with every corridor, so the
+        // corridor core is empty iff they are infeasible with none
+        List<Integer> corridorCore = new ArrayList<>();
+        if (check(corridorOracle, corridorCore)) {
+            corridorCore = quickXplain(corridorOracle, new ArrayList<Integer>(),
+                    new ArrayList<Integer>(), corridors);
+        }
+        List<Corridor> coreCorridors = new ArrayList<>();
+        for (int c : corridorCore) {
+            coreCorridors.add(problem.getCorridor(c));
+        }
+        return new InfeasibleCore(coreEvents, coreCorridors, solveCount);
+    }
+
+    /**
+     * Returns a minimal infeasible subset of the candidates, or null if all of
+     * them are feasible together.
+     */
+    private List<Integer> quickXplain(Oracle oracle,
+            List<Integer> candidates) {
+        if (check(oracle, candidates)) {
+            return null;
+        }
+        return quickXplain(oracle, new ArrayList<Integer>(),
+                new ArrayList<Integer>(), candidates);
+    }
+
+    /**
+     * Returns a minimal subset of the candidates that is infeasible together
+     * with the background, which is feasible on its own, given that the
+     * background and all of the candidates together are infeasible. The
+     * background was last extended by added.
+     */
+    private List<Integer> quickXplain(Oracle oracle, List<Integer> background,
+            List<Integer> added, List<Integer> candidates) {
+        if (!added.isEmpty() && !check(oracle, background)) {
+            // the background is infeasible without any of the candidates
+            return new ArrayList<>();
+        }
+        if (candidates.size() == 1) {
+            return new ArrayList<>(candidates);
+        }
+        int half = candidates.size() / 2;
+        List<Integer> first = candidates.subList(0, half);
+        List<Integer> second = candidates.subList(half, candidates.size());
+
+        List<Integer> withFirst = new ArrayList<>(background);
+        withFirst.addAll(first);
+        List<Integer> secondCore = quickXplain(oracle, withFirst, first,
+                second);
+        List<Integer> withSecondCore = new ArrayList<>(background);
+        withSecondCore.addAll(secondCore);
+        List<Integer> firstCore = quickXplain(oracle, withSecondCore,
+                secondCore, first);
+        firstCore.addAll(secondCore);
+        return firstCore;
+    }
+
+    /**
+     * Returns whether the given candidates are feasible, counting the check.
+     */
+    private boolean check(Oracle oracle, List<Integer> candidates) {
+        solveCount++;
+        return oracle.feasible(candidates);
+    }
+
+    /**
+     * Returns the events of the problem with the given ids.
+     */
+    private List<Event> events(List<Integer> ids) {
+        List<Event> result = new ArrayList<>(ids.size());
+        for (int e : ids) {
+            result.add(problem.getEvent(e));
+        }
+        return result;
+    }
+
+}
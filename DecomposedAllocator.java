@@ -0,0 +1,483 @@
+package planner;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Provides a method for finding a safe allocation of events to venues that
+ * solves each independent component of the venues (see ProblemDecomposition)
+ * as a separate, smaller problem.
+ * </p>
+ *
+ * <p>
+ * The components do not share corridors, so the only thing that couples them
+ * is which events go to which component. The events are handed out to the
+ * components one at a time, largest first, and each time an event is added
+ * to a component, the component is checked to still have a safe allocation of
+ * its events to its venues. A dead end backtracks over the hand-out, not over
+ * the placements inside the components, so a component is never searched
+ * again for a set of events it was already solved for. Events of the same
+ * size are interchangeable, so they are only handed out to components in
+ * increasing order, and the solution for a component is shared between all
+ * sets of events with the same sizes. The hand-out runs on an explicit stack
+ * of frames, one per event, so the number of events is not limited by the
+ * call stack.
+ * </p>
+ *
+ * <p>
+ * Adding an event to a component first tries to keep the component's previous
+ * allocation and put the new event at a free venue; only if that is not safe
+ * is the component solved from scratch, in the same way as
+ * Allocator.allocateFirst. The venues of each component are compiled, and
+ * their dominance order worked out, once (see ScenarioAllocator), so solving
+ * a component only has to compile its events. The checks of the components
+ * that an event could go to are independent, so they run in parallel in a
+ * ForkJoinPool, and the allocations of the components are merged at the end.
+ * The solutions are kept for one call only, and once there are more than
+ * MAX_SOLUTIONS of them, all but those of the current hand-out are dropped
+ * and worked out again if they are needed.
+ * </p>
+ */
+public class DecomposedAllocator {
+
+    // the result recorded for a set of events a component cannot take
+    private static final int[] INFEASIBLE = new int[0];
+    // the number of solutions that are kept before they are pruned
+    private static final int MAX_SOLUTIONS = 1 << 16;
+
+    // the problem being solved and its components
+    private final CompiledProblem problem;
+    private final ProblemDecomposition decomposition;
+    // the pool that the checks of the components run in
+    private final ForkJoinPool pool;
+    // the events in the order they are handed out: largest first
+    private final int[] events;
+    // handed[k][0 .. handedCount[k] - 1] are the events handed to component k
+    private final int[][] handed;
+    private final int[] handedCount;
+    // lastComponent[s] is the last component an event of size class s was
+    // handed to
+    private final int[] lastComponent;
+    // frame i of the stack hands out events[i]: to component[i] (or -1 before
+    // its first component), after lastComponent was previous[i] for its size
+    private final int[] component;
+    private final int[] previous;
+    // maxCapacity[k] is the greatest capacity of a venue in component k
+    private final int[] maxCapacity;
+    // componentVenues[k] are the ids of the venues of component k, and
+    // componentProblems[k] is them compiled with no events, with the
+    // dominance order componentDominance[k]
+    private final int[][] componentVenues;
+    private final CompiledProblem[] componentProblems;
+    private final VenueDominance[] componentDominance;
+    // the ids of the venues that each component gives each set of event
+    // sizes, in the order of the sizes, or INFEASIBLE
+    private final Map<Key, int[]> solutions;
+
+    /*
+     * invariant: handed[k] lists events in the order they were handed out,
+     * every solution in solutions is a safe allocation of its sizes to the
+     * venues of its component, or INFEASIBLE if there is none, and
+     * solutions.size() <= MAX_SOLUTIONS + the number of components after each
+     * frame is pushed
+     */
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise. The components are checked
+     * in the common ForkJoinPool.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues) {
+        return allocate(events, venues, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise. The components are checked
+     * in the given pool.
+     *
+     * @param events
+     *            the events to allocate
+     * @param venues
+     *            the venues that the events can be allocated to
+     * @param pool
+     *            the pool that the checks of the components run in
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     * @throws NullPointerException
+     *             if pool is null
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("The pool cannot be null.");
+        }
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (!new CapacityMatching(problem).isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        ProblemDecomposition decomposition = new ProblemDecomposition(problem);
+        if (decomposition.getComponentCount() <= 1) {
+            // there is nothing to decompose
+            return Allocator.allocateFirst(events, venues);
+        }
+        return new DecomposedAllocator(decomposition, pool).solve();
+    }
+
+    /**
+     * Creates a solver for the problem of the given decomposition.
+     */
+    private DecomposedAllocator(ProblemDecomposition decomposition,
+            ForkJoinPool pool) {
+        this.decomposition = decomposition;
+        this.pool = pool;
+        problem = decomposition.getProblem();
+        int eventCount = problem.getEventCount();
+        events = problem.eventsBySizeDescending();
+        int components = decomposition.getComponentCount();
+        handed = new int[components][eventCount];
+        handedCount = new int[components];
+        lastComponent = new int[problem.sizes.length];
+        component = new int[eventCount];
+        previous = new int[eventCount];
+        maxCapacity = new int[components];
+        componentVenues = new int[components][];
+        componentProblems = new CompiledProblem[components];
+        componentDominance = new VenueDominance[components];
+        for (int k = 0; k < components; k++) {
+            componentVenues[k] = decomposition.getVenues(k);
+            List<Venue> venues = new ArrayList<>();
+            for (int v : componentVenues[k]) {
+                maxCapacity[k] = Math.max(maxCapacity[k],
+                        problem.venueCapacity[v]);
+                venues.add(problem.getVenue(v));
+            }
+            componentProblems[k] = new CompiledProblem(new ArrayList<Event>(),
+                    venues);
+            componentDominance[k] = new VenueDominance(componentProblems[k]);
+        }
+        solutions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Hands out all of the events and returns the merged allocation of the
+     * components, or null if the events cannot be handed out safely.
+     */
+    private Map<Event, Venue> solve() {
+        if (!handOut()) {
+            return null;
+        }
+        Map<Event, Venue> allocation = new HashMap<>();
+        for (int k = 0; k < handed.length; k++) {
+            if (handedCount[k] == 0) {
+                continue;
+            }
+            int[] venues = solutions.get(key(k, -1));
+            if (venues == null) {
+                // it was pruned
+                venues = solveComponent(k, Arrays.copyOf(handed[k],
+                        handedCount[k]), null);
+            }
+            for (int i = 0; i < handedCount[k]; i++) {
+                allocation.put(problem.getEvent(handed[k][i]), problem
+                        .getVenue(venues[i]));
+            }
+        }
+        return allocation;
+    }
+
+    /**
+     * Hands out the events to the components on an explicit stack, returning
+     * true if they could all be handed out so that each component has a safe
+     * allocation, and false (leaving none of them handed out) otherwise.
+     */
+    private boolean handOut() {
+        int index = 0; // the frame on top of the stack
+        if (events.length > 0) {
+            open(0);
+        }
+        while (index >= 0) {
+            if (index == events.length) {
+                return true;
+            }
+            int event = events[index];
+            int sizeClass = problem.eventSizeClass[event];
+            int k = component[index];
+            if (k >= 0) {
+                // take back the last hand-out of this frame
+                lastComponent[sizeClass] = previous[index];
+                handedCount[k]--;
+            }
+            k = nextComponent(event, k < 0 ? previous[index] : k + 1);
+            if (k < 0) {
+                index--;
+                continue;
+            }
+            component[index] = k;
+            handed[k][handedCount[k]++] = event;
+            lastComponent[sizeClass] = k;
+            if (++index < events.length) {
+                open(index);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pushes the frame that hands out events[index], checking every
+     * component the event could go to, in parallel.
+     */
+    private void open(int index) {
+        int event = events[index];
+        int sizeClass = problem.eventSizeClass[event];
+        component[index] = -1;
+        previous[index] = lastComponent[sizeClass];
+        if (solutions.size() > MAX_SOLUTIONS) {
+            prune();
+        }
+        List<Check> checks = new ArrayList<>();
+        for (int k = lastComponent[sizeClass]; k < handed.length; k++) {
+            if (maxCapacity[k] >= problem.eventSize[event] && !solutions
+                    .containsKey(key(k, event))) {
+                checks.add(new Check(k, event));
+            }
+        }
+        if (checks.size() == 1) {
+            checks.get(0).compute();
+        } else if (checks.size() > 1) {
+            pool.invoke(new CheckAll(checks));
+        }
+    }
+
+    /**
+     * Drops every solution but those of the sets of events handed out now.
+     */
+    private void prune() {
+        Map<Key, int[]> kept = new HashMap<>();
+        for (int k = 0; k < handed.length; k++) {
+            Key key = key(k, -1);
+            int[] solution = solutions.get(key);
+            if (handedCount[k] > 0 && solution != null) {
+                kept.put(key, solution);
+            }
+        }
+        solutions.clear();
+        solutions.putAll(kept);
+    }
+
+    /**
+     * Returns the first component from the given one on that can take the
+     * given event as well as the events already handed to it, or -1 if there
+     * is none. A check that was pruned is run again.
+     */
+    private int nextComponent(int event, int from) {
+        for (int k = from; k < handed.length; k++) {
+            if (maxCapacity[k] < problem.eventSize[event]) {
+                continue;
+            }
+            int[] solution = solutions.get(key(k, event));
+            if (solution == null) {
+                Check check = new Check(k, event);
+                check.compute();
+                solution = solutions.get(check.key);
+            }
+            if (solution != INFEASIBLE) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key of the sizes of the events handed to the given
+     * component, followed by the size of the given event if it is not -1.
+     */
+    private Key key(int component, int event) {
+        int count = handedCount[component];
+        int[] sizes = new int[event < 0 ? count : count + 1];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = problem.eventSize[handed[component][i]];
+        }
+        if (event >= 0) {
+            sizes[count] = problem.eventSize[event];
+        }
+        return new Key(component, sizes);
+    }
+
+    /**
+     * Returns the ids of the venues of a safe allocation of the given events
+     * (largest first) to the venues of the given component, in the order of
+     * the events, or INFEASIBLE if there is none. The allocation previous of
+     * all but the last event, if it is not null, is kept if the last event
+     * fits at a free venue.
+     */
+    private int[] solveComponent(int component, int[] componentEvents,
+            int[] previous) {
+        int last = componentEvents.length - 1; // the new event
+        if (previous != null) {
+            int[] traffic = new int[problem.getCorridorCount()];
+            long[] used = new long[CompiledProblem.words(problem
+                    .getVenueCount())];
+            for (int i = 0; i < last; i++) {
+                int[] loads = problem.loads(componentEvents[i], previous[i]);
+                int[] corridors = problem.venueCorridors[previous[i]];
+                for (int j = 0; j < corridors.length; j++) {
+                    traffic[corridors[j]] += loads[j];
+                }
+                used[previous[i] >>> 6] |= 1L << previous[i];
+            }
+            for (int v : componentVenues[component]) {
+                if ((used[v >>> 6] & (1L << v)) == 0 && fits(traffic,
+                        componentEvents[last], v)) {
+                    int[] result = Arrays.copyOf(previous, last + 1);
+                    result[last] = v;
+                    return result;
+                }
+            }
+        }
+        // solve the component from scratch
+        List<Event> subEvents = new ArrayList<>();
+        for (int e : componentEvents) {
+            subEvents.add(problem.getEvent(e));
+        }
+        CompiledProblem subProblem = componentProblems[component].withEvents(
+                subEvents);
+        VenueDominance dominance = componentDominance[component];
+        CapacityMatching matching = new CapacityMatching(subProblem,
+                dominance);
+        if (!matching.isComplete()) {
+            return INFEASIBLE;
+        }
+        AllocationSearch search = Allocator.newSearch(subProblem, matching,
+                dominance);
+        if (!search.solve()) {
+            return INFEASIBLE;
+        }
+        int[] result = search.getAssignment();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = componentVenues[component][result[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the venue can host the event and the event's load
+     * there fits on top of the given traffic on each corridor.
+     */
+    private boolean fits(int[] traffic, int event, int venue) {
+        int[] loads = problem.loads(event, venue);
+        if (loads == null) {
+            return false;
+        }
+        int[] corridors = problem.venueCorridors[venue];
+        for (int j = 0; j < corridors.length; j++) {
+            if (traffic[corridors[j]] + loads[j] > problem
+                    .corridorCapacity[corridors[j]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A check of whether a component can safely take one more event, which
+     * records its result in solutions.
+     */
+    private class Check extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int component;
+        private final int[] componentEvents;
+        private final Key key;
+        // the solution for the events already handed to the component, or
+        // null if it was pruned
+        private final int[] previous;
+
+        /**
+         * Creates a check of whether the given component can take the given
+         * event as well as the events already handed to it. (The hand-out
+         * must not change until the check has run.)
+         */
+        Check(int component, int event) {
+            this.component = component;
+            int count = handedCount[component];
+            componentEvents = Arrays.copyOf(handed[component], count + 1);
+            componentEvents[count] = event;
+            key = key(component, event);
+            previous = count == 0 ? new int[0] : solutions.get(key(
+                    component, -1));
+        }
+
+        @Override
+        protected void compute() {
+            solutions.put(key, solveComponent(component, componentEvents,
+                    previous));
+        }
+    }
+
+    /**
+     * Runs a list of checks in parallel.
+     */
+    private static class CheckAll extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Check> checks;
+
+        CheckAll(List<Check> checks) {
+            this.checks = checks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(checks);
+        }
+    }
+
+    /**
+     * The sizes of a set of events handed to a component, largest first.
+     */
+    private static class Key {
+
+        private final int component;
+        private final int[] sizes;
+        private final int hash;
+
+        Key(int component, int[] sizes) {
+            this.component = component;
+            this.sizes = sizes;
+            hash = 31 * component + Arrays.hashCode(sizes);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object; // the key to compare
+            return component == other.component && Arrays.equals(sizes,
+                    other.sizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
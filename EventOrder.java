@@ -0,0 +1,62 @@
+package planner;
+
+/**
+ * <p>
+ * A heuristic that chooses which unplaced event an AllocationSearch places
+ * next.
+ * </p>
+ *
+ * <p>
+ * The search places the unplaced event with the lowest score next, breaking
+ * ties in favour of the event with the lowest id (i.e. the event that comes
+ * first in the list the problem was compiled from).
+ * </p>
+ */
+public interface EventOrder {
+
+    /**
+     * Places events in the order they were given in.
+     */
+    EventOrder INPUT_ORDER = new EventOrder() {
+        @Override
+        public int score(AllocationSearch search, int event) {
+            return 0;
+        }
+    };
+
+    /**
+     * Places the largest events first, since they can be hosted by the fewest
+     * venues and generate the most traffic.
+     */
+    EventOrder LARGEST_FIRST = new EventOrder() {
+        @Override
+        public int score(AllocationSearch search, int event) {
+            return -search.getProblem().getEvent(event).getSize();
+        }
+    };
+
+    /**
+     * Places the event with the fewest venues that it could currently be
+     * placed at first (the "fail-first" heuristic), so that dead ends are
+     * found as high up in the search tree as possible.
+     */
+    EventOrder FEWEST_VENUES_FIRST = new EventOrder() {
+        @Override
+        public int score(AllocationSearch search, int event) {
+            return search.countCandidates(event);
+        }
+    };
+
+    /**
+     * Returns the score of the given unplaced event in the current state of
+     * the search. The event with the lowest score is placed next.
+     *
+     * @param search
+     *            the search that is choosing an event
+     * @param event
+     *            the id of an unplaced event
+     * @return the score of the event
+     */
+    int score(AllocationSearch search, int event);
+
+}
@@ -0,0 +1,510 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Maintains a safe allocation of events to venues as single events are added
+ * to it and removed from it, moving as few of the already allocated events as
+ * possible.
+ * </p>
+ *
+ * <p>
+ * The venues are compiled once, when the allocator is created, and the
+ * allocation is held between changes as the venue of each event, the event
+ * at each venue and the traffic on each corridor, so a change only does work
+ * near the event it changes. Removing an event can only reduce traffic, so
+ * the rest of the allocation stays safe as it is.
+ * </p>
+ *
+ * <p>
+ * Adding an event is handled by a bounded repair around the current
+ * allocation: first with no existing event allowed to move, then one, and so
+ * on up to a maximum number of moves. Only the events near the new one can
+ * need to move. An event only has to move if an event that is placed or moved
+ * takes its venue or a venue that shares a corridor with it, so in a repair
+ * with the fewest moves every moved event is linked to the new event by a
+ * chain of such events no longer than the number of moves. The repair finds
+ * those events, by a breadth-first walk out from the venues that the new
+ * event could be placed at, lifts them, and keeps every other event where it
+ * is. Each pass is then a backtracking search on an explicit stack, in which
+ * every lifted event tries its current venue first, and trying any other
+ * venue uses up one of the allowed moves. The first pass that succeeds
+ * therefore moves the fewest events possible.
+ * </p>
+ */
+public class IncrementalAllocator {
+
+    // the number of existing events that may be moved by default
+    public static final int DEFAULT_MAX_MOVES = 2;
+
+    // the venues compiled with no events
+    private final CompiledProblem venues;
+    // the id of each venue
+    private final Map<Venue, Integer> venueIds;
+    // corridorVenues[c] are the ids of the venues that generate traffic on
+    // corridor c
+    private final int[][] corridorVenues;
+
+    // the events of the allocation, indexed by their ids, and the id of each
+    private final List<Event> events;
+    private final Map<Event, Integer> eventIds;
+    // venueOf[e] is the venue of event e, and size[e] is its size
+    private int[] venueOf;
+    private int[] size;
+    // occupant[v] is the event at venue v, or -1 if venue v is free
+    private final int[] occupant;
+    // traffic[c] is the traffic of the allocation on corridor c
+    private final int[] traffic;
+
+    // the lifted events and the venue each was at before the repair (-1 for
+    // the new event) by their position in the repair
+    private int[] lifted;
+    private int[] home;
+    // the venue whose candidates each position of the repair has reached:
+    // -2 before its home has been tried, -1 once it has, and then the venue
+    // id of the last candidate tried
+    private int[] cursor;
+    // eventMark[e], venueMark[v] and corridorMark[c] equal mark once the walk
+    // of the current repair has reached event e, venue v or corridor c
+    private int[] eventMark;
+    private final int[] venueMark;
+    private final int[] corridorMark;
+    private int mark;
+
+    /*
+     * invariant: events.size() == eventIds.size(), eventIds.get(events.get(e))
+     * == e, the events are at distinct venues that can host them (venueOf[e]
+     * and occupant[venueOf[e]] == e), traffic[c] is the sum of the traffic of
+     * the events on corridor c, and the allocation is safe
+     */
+
+    /**
+     * Creates an allocator that maintains the given safe allocation of events
+     * to the given venues, compiling the venues.
+     *
+     * @param allocation
+     *            the safe allocation to start from, which is not modified
+     * @param venues
+     *            the venues that events can be allocated to
+     * @require allocation != null && venues != null && allocation is a safe
+     *          allocation of events to venues in venues &&
+     *          !venues.contains(null) && venues does not contain duplicate
+     *          venues
+     * @throws NullPointerException
+     *             if allocation or venues is null, or venues contains null
+     */
+    public IncrementalAllocator(Map<Event, Venue> allocation,
+            List<Venue> venues) {
+        this.venues = new CompiledProblem(new ArrayList<Event>(), venues);
+        int venueCount = this.venues.getVenueCount();
+        int corridorCount = this.venues.getCorridorCount();
+        venueIds = new HashMap<>();
+        for (int v = 0; v < venueCount; v++) {
+            venueIds.put(venues.get(v), v);
+        }
+        int[] count = new int[corridorCount]; // the venues of each corridor
+        for (int v = 0; v < venueCount; v++) {
+            for (int c : this.venues.venueCorridors[v]) {
+                count[c]++;
+            }
+        }
+        corridorVenues = new int[corridorCount][];
+        for (int c = 0; c < corridorCount; c++) {
+            corridorVenues[c] = new int[count[c]];
+            count[c] = 0;
+        }
+        for (int v = 0; v < venueCount; v++) {
+            for (int c : this.venues.venueCorridors[v]) {
+                corridorVenues[c][count[c]++] = v;
+            }
+        }
+
+        int capacity = Math.max(allocation.size() + 1, 16);
+        events = new ArrayList<>(capacity);
+        eventIds = new HashMap<>();
+        venueOf = new int[capacity];
+        size = new int[capacity];
+        lifted = new int[capacity];
+        home = new int[capacity];
+        cursor = new int[capacity];
+        eventMark = new int[capacity];
+        venueMark = new int[venueCount];
+        corridorMark = new int[corridorCount];
+        occupant = new int[venueCount];
+        Arrays.fill(occupant, -1);
+        traffic = new int[corridorCount];
+        for (Map.Entry<Event, Venue> entry : allocation.entrySet()) {
+            int e = append(entry.getKey());
+            place(e, venueIds.get(entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns a safe allocation of the events in the given allocation and the
+     * given new event to the given venues, that moves at most
+     * DEFAULT_MAX_MOVES of the events already allocated, or null if there is
+     * no such allocation.
+     *
+     * @require allocation != null && event != null && venues != null &&
+     *          allocation is a safe allocation of events to venues in venues
+     *          && !allocation.containsKey(event) && !venues.contains(null) &&
+     *          venues does not contain duplicate venues
+     * @ensure Returns a safe allocation of allocation.keySet() and event to
+     *         venues that differs from allocation for the fewest existing
+     *         events possible, if it moves at most DEFAULT_MAX_MOVES of them,
+     *         or null otherwise. The given allocation is not modified.
+     */
+    public static Map<Event, Venue> addEvent(Map<Event, Venue> allocation,
+            Event event, List<Venue> venues) {
+        return addEvent(allocation, event, venues, DEFAULT_MAX_MOVES);
+    }
+
+    /**
+     * Returns a safe allocation of the events in the given allocation and the
+     * given new event to the given venues, that moves at most maxMoves of the
+     * events already allocated, or null if there is no such allocation. (A
+     * null result does not mean that there is no safe allocation at all: one
+     * that moves more events may still exist.) To make many changes to the
+     * same allocation, create an IncrementalAllocator instead, so that the
+     * venues are only compiled once.
+     *
+     * @require allocation != null && event != null && venues != null &&
+     *          allocation is a safe allocation of events to venues in venues
+     *          && !allocation.containsKey(event) && !venues.contains(null) &&
+     *          venues does not contain duplicate venues
+     * @ensure Returns a safe allocation of allocation.keySet() and event to
+     *         venues that differs from allocation for the fewest existing
+     *         events possible, if it moves at most maxMoves of them, or null
+     *         otherwise. The given allocation is not modified.
+     * @throws IllegalArgumentException
+     *             if maxMoves is negative
+     */
+    public static Map<Event, Venue> addEvent(Map<Event, Venue> allocation,
+            Event event, List<Venue> venues, int maxMoves) {
+        if (maxMoves < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of moves cannot be negative.");
+        }
+        IncrementalAllocator allocator = new IncrementalAllocator(allocation,
+                venues);
+        return allocator.add(event, maxMoves) ? allocator.getAllocation()
+                : null;
+    }
+
+    /**
+     * Returns a safe allocation of the events in the given allocation other
+     * than the given event. Since removing an event never increases traffic,
+     * no other event needs to move.
+     *
+     * @require allocation != null && allocation is a safe allocation
+     * @ensure Returns a copy of allocation without event (which is a safe
+     *         allocation). The given allocation is not modified.
+     */
+    public static Map<Event, Venue> removeEvent(Map<Event, Venue> allocation,
+            Event event) {
+        Map<Event, Venue> result = new HashMap<>(allocation);
+        result.remove(event);
+        return result;
+    }
+
+    /**
+     * Adds the given event to the allocation, moving at most
+     * DEFAULT_MAX_MOVES of the events already allocated, if that is possible,
+     * and otherwise leaves the allocation unchanged.
+     *
+     * @param event
+     *            the event to add
+     * @return true if the event was added, and false otherwise
+     * @require event != null && event is not in the allocation
+     * @ensure Returns true, having made the allocation a safe allocation of
+     *         its events and event that moves the fewest of its events
+     *         possible, if that moves at most DEFAULT_MAX_MOVES of them, and
+     *         returns false leaving the allocation unchanged otherwise.
+     */
+    public boolean add(Event event) {
+        return add(event, DEFAULT_MAX_MOVES);
+    }
+
+    /**
+     * Adds the given event to the allocation, moving at most maxMoves of the
+     * events already allocated, if that is possible, and otherwise leaves the
+     * allocation unchanged.
+     *
+     * @param event
+     *            the event to add
+     * @param maxMoves
+     *            the greatest number of events that may be moved
+     * @return true if the event was added, and false otherwise
+     * @require event != null && event is not in the allocation
+     * @ensure Returns true, having made the allocation a safe allocation of
+     *         its events and event that moves the fewest of its events
+     *         possible, if that moves at most maxMoves of them, and returns
+     *         false leaving the allocation unchanged otherwise.
+     * @throws IllegalArgumentException
+     *             if maxMoves is negative
+     */
+    public boolean add(Event event, int maxMoves) {
+        if (maxMoves < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of moves cannot be negative.");
+        }
+        int added = append(event);
+        int count = lift(added, maxMoves);
+        for (int moves = 0; moves <= maxMoves && moves < count; moves++) {
+            if (repair(count, moves)) {
+                return true;
+            }
+        }
+        // put the lifted events back, and forget the new one
+        for (int i = 1; i < count; i++) {
+            place(lifted[i], home[i]);
+        }
+        eventIds.remove(event);
+        events.remove(added);
+        return false;
+    }
+
+    /**
+     * Removes the given event from the allocation, if it is in it. No other
+     * event moves.
+     *
+     * @param event
+     *            the event to remove
+     * @return true if the event was in the allocation, and false otherwise
+     */
+    public boolean remove(Event event) {
+        Integer id = eventIds.remove(event);
+        if (id == null) {
+            return false;
+        }
+        int e = id;
+        unplace(e);
+        // move the last event into the gap, to keep the ids dense
+        int last = events.size() - 1;
+        Event moved = events.remove(last);
+        if (e != last) {
+            events.set(e, moved);
+            eventIds.put(moved, e);
+            venueOf[e] = venueOf[last];
+            size[e] = size[last];
+            occupant[venueOf[e]] = e;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current allocation.
+     *
+     * @return a new map from each event in the allocation to its venue
+     */
+    public Map<Event, Venue> getAllocation() {
+        Map<Event, Venue> allocation = new HashMap<>();
+        for (int e = 0; e < events.size(); e++) {
+            allocation.put(events.get(e), venues.getVenue(venueOf[e]));
+        }
+        return allocation;
+    }
+
+    /**
+     * Gives the given event the next id, without placing it, growing the
+     * arrays indexed by event id if they are full, and returns its id.
+     */
+    private int append(Event event) {
+        int e = events.size();
+        if (e == venueOf.length) {
+            int capacity = 2 * e;
+            venueOf = Arrays.copyOf(venueOf, capacity);
+            size = Arrays.copyOf(size, capacity);
+            lifted = Arrays.copyOf(lifted, capacity);
+            home = Arrays.copyOf(home, capacity);
+            cursor = Arrays.copyOf(cursor, capacity);
+            eventMark = Arrays.copyOf(eventMark, capacity);
+        }
+        events.add(event);
+        eventIds.put(event, e);
+        venueOf[e] = -1;
+        size[e] = event.getSize();
+        return e;
+    }
+
+    /**
+     * Lifts the new event and every event that is linked to it by a chain of
+     * at most maxMoves events, each of which could be placed at the venue of
+     * the next or at a venue that shares a corridor with it, recording them
+     * in lifted and their venues in home from position 0 (the new event) on,
+     * nearest first. Returns the number of events lifted.
+     */
+    private int lift(int added, int maxMoves) {
+        mark++;
+        int count = 0; // the number of events lifted so far
+        lifted[count] = added;
+        home[count++] = -1;
+        eventMark[added] = mark;
+        int ringStart = 0; // the positions of the events found last
+        for (int ring = 0; ring < maxMoves && ringStart < count; ring++) {
+            int ringEnd = count;
+            for (int i = ringStart; i < ringEnd; i++) {
+                for (int v = 0; v < occupant.length; v++) {
+                    if (venueMark[v] == mark
+                            || size[lifted[i]] > venues.venueCapacity[v]) {
+                        continue;
+                    }
+                    venueMark[v] = mark;
+                    count = reach(v, count);
+                    for (int c : venues.venueCorridors[v]) {
+                        if (corridorMark[c] == mark) {
+                            continue;
+                        }
+                        corridorMark[c] = mark;
+                        for (int w : corridorVenues[c]) {
+                            count = reach(w, count);
+                        }
+                    }
+                }
+            }
+            ringStart = ringEnd;
+        }
+        for (int i = 1; i < count; i++) {
+            unplace(lifted[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Records the event at the given venue, if there is one that the walk has
+     * not reached yet, as the next lifted event, and returns the new number
+     * of lifted events.
+     */
+    private int reach(int venue, int count) {
+        int e = occupant[venue];
+        if (e < 0 || eventMark[e] == mark) {
+            return count;
+        }
+        eventMark[e] = mark;
+        lifted[count] = e;
+        home[count] = venue;
+        return count + 1;
+    }
+
+    /**
+     * Places the first count lifted events, moving at most moves of them
+     * from their homes, by a backtracking search on an explicit stack.
+     *
+     * @require the first count lifted events are not placed
+     * @ensure Returns true, leaving them safely placed, if they can be, and
+     *         false leaving them unplaced otherwise.
+     */
+    private boolean repair(int count, int moves) {
+        int moved = 0; // the number of lifted events placed away from home
+        int depth = 0; // the position of the event being placed
+        cursor[0] = -2;
+        while (depth >= 0) {
+            if (depth == count) {
+                return true;
+            }
+            int event = lifted[depth];
+            if (cursor[depth] >= -1 && venueOf[event] >= 0) {
+                // take back the last placement made at this depth
+                if (home[depth] >= 0 && venueOf[event] != home[depth]) {
+                    moved--;
+                }
+                unplace(event);
+            }
+            int venue = next(depth, home[depth] < 0 || moved < moves);
+            if (venue < 0) {
+                depth--;
+                continue;
+            }
+            if (home[depth] >= 0 && venue != home[depth]) {
+                moved++;
+            }
+            place(event, venue);
+            if (++depth < count) {
+                cursor[depth] = -2;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advances the cursor of the given position of the repair to the next
+     * venue its event can be placed at, trying its home first and then, if
+     * canMove, every other venue in ascending order of id, and returns the
+     * venue, or -1 if there is none left.
+     */
+    private int next(int depth, boolean canMove) {
+        int event = lifted[depth];
+        if (cursor[depth] == -2) {
+            cursor[depth] = -1;
+            if (home[depth] >= 0 && fits(event, home[depth])) {
+                return home[depth];
+            }
+        }
+        if (!canMove) {
+            return -1;
+        }
+        for (int v = cursor[depth] + 1; v < occupant.length; v++) {
+            if (v != home[depth] && fits(event, v)) {
+                cursor[depth] = v;
+                return v;
+            }
+        }
+        cursor[depth] = occupant.length;
+        return -1;
+    }
+
+    /**
+     * Returns true if the given venue is free, can host the given event, and
+     * would keep the traffic on each of its corridors within capacity.
+     */
+    private boolean fits(int event, int venue) {
+        if (occupant[venue] >= 0
+                || size[event] > venues.venueCapacity[venue]) {
+            return false;
+        }
+        int[] corridors = venues.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            int c = corridors[k];
+            if (traffic[c] + load(event, venue, c) > venues
+                    .corridorCapacity[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the traffic that the given event generates on the given
+     * corridor at the given venue, using the same integer arithmetic as
+     * Venue.getTraffic.
+     */
+    private int load(int event, int venue, int corridor) {
+        return (size[event] * venues.venueTraffic[venue][corridor])
+                / venues.venueCapacity[venue];
+    }
+
+    /**
+     * Places the given unplaced event at the given free venue.
+     */
+    private void place(int event, int venue) {
+        venueOf[event] = venue;
+        occupant[venue] = event;
+        for (int c : venues.venueCorridors[venue]) {
+            traffic[c] += load(event, venue, c);
+        }
+    }
+
+    /**
+     * Removes the given placed event from its venue.
+     */
+    private void unplace(int event) {
+        int venue = venueOf[event];
+        for (int c : venues.venueCorridors[venue]) {
+            traffic[c] -= load(event, venue, c);
+        }
+        occupant[venue] = -1;
+        venueOf[event] = -1;
+    }
+
+}
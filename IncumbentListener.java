@@ -0,0 +1,29 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Receives the allocations that an optimising search finds, each better than
+ * the last, while the search is still running.
+ * </p>
+ *
+ * <p>
+ * The allocation a search has found so far is its incumbent. Listeners are
+ * called on the thread that runs the search, so they should return quickly.
+ * </p>
+ */
+public interface IncumbentListener {
+
+    /**
+     * Called each time the search finds an allocation better than every one
+     * it found before.
+     *
+     * @param allocation
+     *            the new incumbent, which the listener may keep
+     * @param value
+     *            the value of the new incumbent under the search's objective
+     */
+    void improved(Map<Event, Venue> allocation, double value);
+
+}
@@ -0,0 +1,115 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable explanation of why some events cannot be safely allocated to
+ * some venues: a minimal subset of the events that already cannot be, and
+ * the corridors whose capacities that depends on.
+ * </p>
+ *
+ * <p>
+ * The events of the core cannot be safely allocated to the venues, but every
+ * proper subset of them can, so removing any one of them (or adding a venue
+ * that can host it) is the place to start. The corridors of the core are a
+ * minimal set of corridors such that the events of the core still cannot be
+ * allocated when the capacities of all of the other corridors are ignored.
+ * If there are none, the events do not fit even before traffic is
+ * considered: there are too few venues that are large enough.
+ * </p>
+ *
+ * <p>
+ * The result also records the number of feasibility checks (solves of a
+ * subproblem) it took to find the core.
+ * </p>
+ */
+public class InfeasibleCore {
+
+    // the events of the core, in the order they were given
+    private final List<Event> events;
+    // the corridors of the core, in their natural ordering
+    private final SortedSet<Corridor> corridors;
+    // the number of feasibility checks that were made to find the core
+    private final int solveCount;
+
+    /*
+     * invariant: events != null && !events.isEmpty() && corridors != null &&
+     * neither contains null && solveCount >= 0
+     */
+
+    /**
+     * Creates a new explanation.
+     *
+     * @param events
+     *            the events of the core
+     * @param corridors
+     *            the corridors of the core
+     * @param solveCount
+     *            the number of feasibility checks that were made to find it
+     * @throws NullPointerException
+     *             if events or corridors is null, or if either contains null
+     * @throws IllegalArgumentException
+     *             if events is empty or solveCount is negative
+     */
+    public InfeasibleCore(List<Event> events, Collection<Corridor> corridors,
+            int solveCount) {
+        if (events == null || corridors == null) {
+            throw new NullPointerException(
+                    "The events and corridors cannot be null.");
+        }
+        if (events.contains(null) || corridors.contains(null)) {
+            throw new NullPointerException(
+                    "The events and corridors cannot contain null.");
+        }
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "An infeasible core must have at least one event.");
+        }
+        if (solveCount < 0) {
+            throw new IllegalArgumentException(
+                    "The number of solves cannot be negative.");
+        }
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        this.corridors = Collections.unmodifiableSortedSet(new TreeSet<>(
+                corridors));
+        this.solveCount = solveCount;
+    }
+
+    /**
+     * Returns the events of the core: a subset of the events that cannot be
+     * safely allocated, although each of its proper subsets can be.
+     *
+     * @return an unmodifiable list of the events of the core
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the corridors of the core: a minimal set of corridors whose
+     * capacities alone keep the events of the core from being allocated.
+     *
+     * @return an unmodifiable set of the corridors of the core, which is
+     *         empty if the events do not fit the capacities of the venues
+     */
+    public SortedSet<Corridor> getCorridors() {
+        return corridors;
+    }
+
+    /**
+     * Returns the number of feasibility checks that were made to find the
+     * core, including the one that showed the events to be infeasible.
+     *
+     * @return the number of solves of a subproblem
+     */
+    public int getSolveCount() {
+        return solveCount;
+    }
+
+    @Override
+    public String toString() {
+        return "events " + events + " over corridors " + corridors;
+    }
+
+}
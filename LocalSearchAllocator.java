@@ -0,0 +1,384 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A heuristic search for a safe allocation of the events of a compiled problem
+ * to its venues, for instances far too large to search exhaustively.
+ * </p>
+ *
+ * <p>
+ * The search starts from a random allocation in which every event is at a
+ * distinct venue that can host it, but corridors may be overloaded: that is,
+ * carry more traffic than their capacity (see Traffic.isSafe). It then
+ * repeatedly picks an event at a venue next to an overloaded corridor and
+ * moves it to a free venue, or swaps it with another event, choosing the move
+ * that reduces the total overload of all corridors the most (min-conflicts).
+ * A move that makes things worse is still taken with a probability that falls
+ * as the search cools down (simulated annealing), so that the search can climb
+ * out of local minima. If the overload has not reached zero after a given
+ * number of steps, the search restarts from a new random allocation.
+ * </p>
+ *
+ * <p>
+ * When there are many venues, only a random sample of them is considered for
+ * each move, so that a step takes about the same time however large the
+ * problem is.
+ * </p>
+ *
+ * <p>
+ * The search returns as soon as the overload reaches zero, since the
+ * allocation is then safe. It is not complete: failing to find a safe
+ * allocation does not show that there is none. Searches with the same seed
+ * make the same choices, so their results can be reproduced.
+ * </p>
+ */
+public class LocalSearchAllocator {
+
+    // the default number of steps before each restart
+    public static final long DEFAULT_MAX_STEPS = 100000;
+    // the default number of restarts after the first attempt
+    public static final int DEFAULT_RESTARTS = 10;
+    // the temperature at the start of each attempt, in units of traffic
+    private static final double START_TEMPERATURE = 2.0;
+    // the factor the temperature is multiplied by after each step
+    private static final double COOLING = 0.9995;
+    // the greatest number of venues considered for a move at each step
+    private static final int SAMPLE_SIZE = 256;
+
+    // the problem being searched
+    private final CompiledProblem problem;
+    // the source of all random choices
+    private final Random random;
+    // the number of steps of each attempt and the number of restarts
+    private long maxSteps = DEFAULT_MAX_STEPS;
+    private int restarts = DEFAULT_RESTARTS;
+    // when set, the search gives up once this token is cancelled
+    private CancellationToken token;
+
+    // assignment[e] is the venue event e is at
+    private final int[] assignment;
+    // owner[v] is the event at venue v, or -1
+    private final int[] owner;
+    // usage[c] is the traffic on corridor c
+    private final int[] usage;
+    // the sum over all corridors of the traffic above their capacity
+    private int overload;
+    // overloaded[0 .. overloadedCount - 1] are the overloaded corridors, and
+    // position[c] is the position of corridor c in overloaded when it is one
+    private final int[] overloaded;
+    private int overloadedCount;
+    private final int[] position;
+    // corridorVenues[c] are the venues next to corridor c
+    private final int[][] corridorVenues;
+    // a buffer of the events next to an overloaded corridor
+    private final int[] culprits;
+
+    // the number of steps taken by the last call to solve, and the lowest
+    // overload it reached
+    private long steps;
+    private int bestOverload;
+
+    /*
+     * invariant: during a search, every event is at a distinct venue that can
+     * host it, owner is the inverse of assignment, and usage and overload
+     * agree with the assignment
+     */
+
+    /**
+     * Creates a new local search for the given problem whose random choices
+     * are determined by the given seed.
+     *
+     * @param problem
+     *            the problem to search
+     * @param seed
+     *            the seed of the random choices
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public LocalSearchAllocator(CompiledProblem problem, long seed) {
+        this.problem = problem;
+        random = new Random(seed);
+        assignment = new int[problem.getEventCount()];
+        owner = new int[problem.getVenueCount()];
+        usage = new int[problem.getCorridorCount()];
+        overloaded = new int[problem.getCorridorCount()];
+        position = new int[problem.getCorridorCount()];
+        int[] degree = new int[problem.getCorridorCount()];
+        for (int v = 0; v < problem.getVenueCount(); v++) {
+            for (int c : problem.venueCorridors[v]) {
+                degree[c]++;
+            }
+        }
+        corridorVenues = new int[problem.getCorridorCount()][];
+        for (int c = 0; c < degree.length; c++) {
+            corridorVenues[c] = new int[degree[c]];
+            degree[c] = 0;
+        }
+        for (int v = 0; v < problem.getVenueCount(); v++) {
+            for (int c : problem.venueCorridors[v]) {
+                corridorVenues[c][degree[c]++] = v;
+            }
+        }
+        culprits = new int[problem.getVenueCount()];
+    }
+
+    /**
+     * Sets the number of steps each attempt takes before the search restarts.
+     *
+     * @param maxSteps
+     *            the number of steps of each attempt
+     * @throws IllegalArgumentException
+     *             if maxSteps is negative
+     */
+    public void setMaxSteps(long maxSteps) {
+        if (maxSteps < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of steps cannot be negative.");
+        }
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Sets the number of times the search restarts from a new random
+     * allocation before it gives up.
+     *
+     * @param restarts
+     *            the number of restarts
+     * @throws IllegalArgumentException
+     *             if restarts is negative
+     */
+    public void setRestarts(int restarts) {
+        if (restarts < 0) {
+            throw new IllegalArgumentException(
+                    "The number of restarts cannot be negative.");
+        }
+        this.restarts = restarts;
+    }
+
+    /**
+     * Sets the token that the search polls at every step: once the token is
+     * cancelled, solve gives up. A null token means the search is never
+     * cancelled.
+     *
+     * @param token
+     *            the token to poll, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns the number of steps taken by the last call to solve.
+     *
+     * @return the number of steps taken
+     */
+    public long getStepCount() {
+        return steps;
+    }
+
+    /**
+     * Returns the lowest total overload of the corridors reached by the last
+     * call to solve, which is zero if it found a safe allocation.
+     *
+     * @return the lowest overload reached
+     */
+    public int getBestOverload() {
+        return bestOverload;
+    }
+
+    /**
+     * Searches for a safe allocation of the events to the venues.
+     *
+     * @return an array whose element e is the id of the venue that event e is
+     *         placed at in the safe allocation found, or null if none was
+     *         found (either because no event can be placed at a distinct
+     *         venue that can host it, or because the search ran out of steps
+     *         or was cancelled)
+     */
+    public int[] solve() {
+        steps = 0;
+        bestOverload = Integer.MAX_VALUE;
+        if (!new CapacityMatching(problem).isComplete()) {
+            return null;
+        }
+        for (int attempt = 0; attempt <= restarts; attempt++) {
+            start();
+            double temperature = START_TEMPERATURE;
+            for (long step = 0; overload > 0 && step < maxSteps; step++) {
+                if (token != null && token.isCancelled()) {
+                    return null;
+                }
+                step(temperature);
+                steps++;
+                bestOverload = Math.min(bestOverload, overload);
+                temperature *= COOLING;
+            }
+            bestOverload = Math.min(bestOverload, overload);
+            if (overload == 0) {
+                return assignment.clone();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts an attempt from a random allocation of every event to a distinct
+     * venue that can host it. The events are placed largest first, each at a
+     * random free venue that can host it: since every venue that can host an
+     * event can also host all smaller ones, this never gets stuck when some
+     * such allocation exists.
+     */
+    private void start() {
+        Arrays.fill(owner, -1);
+        Arrays.fill(usage, 0);
+        overload = 0;
+        overloadedCount = 0;
+        // the events largest first, in a random order among those of the
+        // same size
+        int[] bySize = problem.eventsBySizeDescending();
+        for (int i = 0, j = 0; i < bySize.length; i = j) {
+            while (j < bySize.length && problem.eventSize[bySize[j]]
+                    == problem.eventSize[bySize[i]]) {
+                j++;
+            }
+            for (int k = j - 1; k > i; k--) {
+                int other = i + random.nextInt(k - i + 1);
+                int event = bySize[k];
+                bySize[k] = bySize[other];
+                bySize[other] = event;
+            }
+        }
+        for (int event : bySize) {
+            int count = 0; // the number of free venues that can host event
+            for (int v = 0; v < owner.length; v++) {
+                if (owner[v] < 0 && problem.canHost(event, v)) {
+                    culprits[count++] = v;
+                }
+            }
+            put(event, culprits[random.nextInt(count)]);
+        }
+    }
+
+    /**
+     * Takes one step: picks an event next to a random overloaded corridor,
+     * and makes the best move or swap for it (among a sample of the venues,
+     * if there are many), unless that increases the
+     * overload and the annealing says no.
+     */
+    private void step(double temperature) {
+        int corridor = overloaded[random.nextInt(overloadedCount)];
+        int count = 0; // the number of events next to corridor
+        for (int v : corridorVenues[corridor]) {
+            if (owner[v] >= 0) {
+                culprits[count++] = owner[v];
+            }
+        }
+        int event = culprits[random.nextInt(count)];
+        int from = assignment[event];
+        int best = -1; // the venue of the best move found so far
+        int bestDelta = Integer.MAX_VALUE; // the change in overload it makes
+        int ties = 0; // the number of moves as good as best
+        boolean sample = owner.length > SAMPLE_SIZE; // whether to sample venues
+        for (int i = 0; i < (sample ? SAMPLE_SIZE : owner.length); i++) {
+            int to = sample ? random.nextInt(owner.length) : i;
+            if (to == from || !problem.canHost(event, to)) {
+                continue;
+            }
+            int other = owner[to];
+            if (other >= 0 && !problem.canHost(other, from)) {
+                continue;
+            }
+            int delta = swapDelta(event, from, other, to);
+            if (delta < bestDelta) {
+                best = to;
+                bestDelta = delta;
+                ties = 1;
+            } else if (delta == bestDelta && random.nextInt(++ties) == 0) {
+                // choose uniformly between equally good moves
+                best = to;
+            }
+        }
+        if (best < 0 || (bestDelta > 0 && random.nextDouble() >= Math.exp(
+                -bestDelta / temperature))) {
+            return;
+        }
+        int other = owner[best];
+        take(event);
+        if (other >= 0) {
+            take(other);
+            put(other, from);
+        }
+        put(event, best);
+    }
+
+    /**
+     * Returns the change in overload that moving the given event from its
+     * venue to the venue to would make, where other is the event at to (which
+     * then moves to from), or -1 if to is free.
+     */
+    private int swapDelta(int event, int from, int other, int to) {
+        int delta = change(event, from, -1);
+        if (other >= 0) {
+            delta += change(other, to, -1);
+            delta += change(other, from, 1);
+        }
+        delta += change(event, to, 1);
+        // undo the trial changes in reverse
+        change(event, to, -1);
+        if (other >= 0) {
+            change(other, from, -1);
+            change(other, to, 1);
+        }
+        change(event, from, 1);
+        return delta;
+    }
+
+    /**
+     * Puts the given event, which is at no venue, at the given free venue.
+     */
+    private void put(int event, int venue) {
+        change(event, venue, 1);
+        assignment[event] = venue;
+        owner[venue] = event;
+    }
+
+    /**
+     * Takes the given event away from its venue.
+     */
+    private void take(int event) {
+        change(event, assignment[event], -1);
+        owner[assignment[event]] = -1;
+        assignment[event] = -1;
+    }
+
+    /**
+     * Adds (sign == 1) or removes (sign == -1) the traffic of the given event
+     * at the given venue to the corridors, and returns the resulting change in
+     * overload.
+     */
+    private int change(int event, int venue, int sign) {
+        int[] load = problem.loads(event, venue);
+        int[] corridors = problem.venueCorridors[venue];
+        int delta = 0; // the change in overload so far
+        for (int k = 0; k < corridors.length; k++) {
+            int c = corridors[k];
+            int before = Math.max(0, usage[c] - problem.corridorCapacity[c]);
+            usage[c] += sign * load[k];
+            int after = Math.max(0, usage[c] - problem.corridorCapacity[c]);
+            if (before == 0 && after > 0) {
+                position[c] = overloadedCount;
+                overloaded[overloadedCount++] = c;
+            } else if (before > 0 && after == 0) {
+                int last = overloaded[--overloadedCount];
+                overloaded[position[c]] = last;
+                position[last] = position[c];
+            }
+            delta += after - before;
+        }
+        overload += delta;
+        return delta;
+    }
+
+}
@@ -0,0 +1,717 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Provides a method for finding a safe allocation of events to venues by
+ * meeting in the middle, which suits problems with many events but only a few
+ * corridors.
+ * </p>
+ *
+ * <p>
+ * The events are split into two halves. Every safe allocation of the events
+ * of the second half to distinct venues is enumerated and reduced to the set
+ * of venues it uses and the load it puts on each corridor. Events of the same
+ * size are only placed at venues in increasing order, and of the allocations
+ * that use the same venues, only those whose loads are not dominated (at
+ * least matched on every corridor) by another are kept. The kept allocations
+ * are indexed by their loads in a k-d tree, each node of which also records
+ * the lowest load on each corridor and the venues used by every allocation
+ * below it. The allocations of the first half are then enumerated in the
+ * same way, without being stored, and each is looked up in the index for an
+ * allocation of the second half that uses none of its venues and fits in the
+ * capacity it leaves on every corridor. The lookup skips the subtrees whose
+ * lowest loads do not fit or whose allocations all share one of its venues,
+ * and partial allocations of the first half that nothing in the index joins
+ * are not extended.
+ * </p>
+ *
+ * <p>
+ * An allocation that joins one in a partial index is already safe, so the
+ * index is built in rounds from the first 1024 allocations of the second
+ * half, twice as many each round, and only a complete index that nothing
+ * joins shows that there is no safe allocation. If a round that visits a
+ * given number of allocations of the second half, and does as many lookups
+ * (of partial allocations too), still finds no answer, the method falls back
+ * to Allocator.allocateFirst. The capacity matching of the events is
+ * returned at once if its traffic fits.
+ * </p>
+ *
+ * <p>
+ * Every safe allocation of all the events joins an allocation of each half,
+ * so at least about the square root of their number of allocations is
+ * enumerated, but it can be far more: each half is enumerated without regard
+ * to the venues and corridor capacity that the other half needs, and a
+ * lookup can visit many allocations that clash on venues. The method is
+ * therefore a complement to Allocator.allocateFirst rather than a
+ * replacement.
+ * </p>
+ */
+public class MeetInTheMiddleAllocator {
+
+    // the default maximum number of allocations visited or looked up for
+    // each half
+    public static final int DEFAULT_MAX_HALF_ENTRIES = 1 << 20;
+    // the number of allocations of each half in the first round
+    private static final int FIRST_ROUND_ENTRIES = 1 << 10;
+    // the average number of index nodes that a lookup may visit
+    private static final int NODES_PER_LOOKUP = 64;
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise, visiting or looking up at
+     * most DEFAULT_MAX_HALF_ENTRIES allocations of each half.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues) {
+        return allocate(events, venues, DEFAULT_MAX_HALF_ENTRIES);
+    }
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise, visiting or looking up at
+     * most maxHalfEntries allocations of each half before falling back to
+     * Allocator.allocateFirst.
+     *
+     * @param events
+     *            the events to allocate
+     * @param venues
+     *            the venues that the events can be allocated to
+     * @param maxHalfEntries
+     *            the maximum number of allocations to visit or look up for
+     *            each half
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     * @throws IllegalArgumentException
+     *             if maxHalfEntries is negative
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues, int maxHalfEntries) {
+        if (maxHalfEntries < 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of entries cannot be negative.");
+        }
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        CapacityMatching matching = new CapacityMatching(problem);
+        if (!matching.isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        int[] matched = safeMatching(problem, matching);
+        if (matched != null) {
+            return problem.toAllocation(matched);
+        }
+        // split the events, largest first, alternately between the halves
+        int[] bySize = problem.eventsBySizeDescending();
+        int[] first = new int[(bySize.length + 1) / 2];
+        int[] second = new int[bySize.length / 2];
+        for (int i = 0; i < bySize.length; i++) {
+            if (i % 2 == 0) {
+                first[i / 2] = bySize[i];
+            } else {
+                second[i / 2] = bySize[i];
+            }
+        }
+        // the index is grown in rounds, since an allocation that joins one
+        // in a partial index is already safe, and only a complete index can
+        // show that there is none
+        for (int limit = Math.min(FIRST_ROUND_ENTRIES, maxHalfEntries);;
+                limit = (int) Math.min(2L * limit, maxHalfEntries)) {
+            Indexer indexer = new Indexer(problem, second, limit);
+            LoadIndex index = indexer.run();
+            Prober prober = new Prober(problem, first, limit, index);
+            boolean exhausted = prober.run();
+            if (prober.match != null) {
+                return join(problem, first, prober.firstAssignment, second,
+                        prober.match.assignment);
+            }
+            if (exhausted && indexer.complete) {
+                // returns null to signify that there is no possible safe
+                // allocation
+                return null;
+            }
+            if (limit == maxHalfEntries) {
+                // too many allocations to visit or look up
+                return Allocator.allocateFirst(problem);
+            }
+        }
+    }
+
+    /**
+     * Returns the allocation of the events of both halves to the venues in
+     * the given assignments of each half.
+     */
+    private static Map<Event, Venue> join(CompiledProblem problem,
+            int[] first, int[] firstAssignment, int[] second,
+            int[] secondAssignment) {
+        int[] assignment = new int[problem.getEventCount()];
+        for (int j = 0; j < first.length; j++) {
+            assignment[first[j]] = firstAssignment[j];
+        }
+        for (int j = 0; j < second.length; j++) {
+            assignment[second[j]] = secondAssignment[j];
+        }
+        return problem.toAllocation(assignment);
+    }
+
+    /**
+     * Returns the assignment of the events to the venues they are matched to,
+     * if its traffic fits in the capacity of every corridor, or null
+     * otherwise.
+     */
+    private static int[] safeMatching(CompiledProblem problem,
+            CapacityMatching matching) {
+        int[] assignment = new int[problem.getEventCount()];
+        int[] load = new int[problem.getCorridorCount()];
+        for (int e = 0; e < assignment.length; e++) {
+            int venue = matching.getVenue(e);
+            assignment[e] = venue;
+            int[] venueLoad = problem.loads(e, venue);
+            int[] corridors = problem.venueCorridors[venue];
+            for (int k = 0; k < corridors.length; k++) {
+                load[corridors[k]] += venueLoad[k];
+            }
+        }
+        for (int c = 0; c < load.length; c++) {
+            if (load[c] > problem.corridorCapacity[c]) {
+                return null;
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * A safe allocation of the events of a half: the venues it uses, the load
+     * it puts on each corridor, and the venue of each event of the half.
+     */
+    private static class Half {
+
+        private final long[] venues;
+        private final int[] load;
+        private final int[] assignment;
+
+        Half(long[] venues, int[] load, int[] assignment) {
+            this.venues = venues;
+            this.load = load;
+            this.assignment = assignment;
+        }
+
+        /**
+         * Returns true if this allocation uses none of the given venues and
+         * its load on each corridor is at most the given room.
+         */
+        boolean joins(long[] other, int[] room) {
+            for (int w = 0; w < venues.length; w++) {
+                if ((venues[w] & other[w]) != 0) {
+                    return false;
+                }
+            }
+            for (int c = 0; c < load.length; c++) {
+                if (load[c] > room[c]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if this allocation's load on each corridor is at most
+         * the given load.
+         */
+        boolean dominates(int[] other) {
+            for (int c = 0; c < load.length; c++) {
+                if (load[c] > other[c]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A set of venues, as a key for the allocations that use them.
+     */
+    private static class VenueSet {
+
+        private final long[] venues;
+        private final int hash;
+
+        VenueSet(long[] venues) {
+            this.venues = venues;
+            hash = Arrays.hashCode(venues);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof VenueSet)) {
+                return false;
+            }
+            VenueSet other = (VenueSet) object; // the set to compare
+            return Arrays.equals(venues, other.venues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A k-d tree of allocations of a half, keyed by their loads.
+     */
+    private static class LoadIndex {
+
+        // the largest number of allocations in a node that is not split
+        private static final int LEAF_SIZE = 8;
+
+        // the allocations, in the order of the tree
+        private final Half[] entries;
+        private final int corridorCount;
+        // the number of words of a venue set
+        private final int words;
+        // node n holds entries[low[n] .. high[n] - 1], and unless it is a
+        // leaf (right[n] < 0), its children are nodes n + 1 and right[n]
+        private final int[] low;
+        private final int[] high;
+        private final int[] right;
+        // minLoad[n * corridorCount + c] is the lowest load on corridor c of
+        // the allocations of node n
+        private final int[] minLoad;
+        // common[n * words + w] is word w of the set of venues used by every
+        // allocation of node n
+        private final long[] common;
+        // the number of nodes built so far
+        private int nodeCount;
+        // the number of nodes visited by lookups so far
+        private long visited;
+
+        /*
+         * invariant: the nodes split entries as described, with the lower
+         * loads on some corridor in the first child
+         */
+
+        LoadIndex(Half[] entries, int corridorCount, int words) {
+            this.entries = entries;
+            this.corridorCount = corridorCount;
+            this.words = words;
+            // every split node has two children of at least LEAF_SIZE / 2
+            // allocations
+            int maxNodes = 2 * (entries.length / (LEAF_SIZE / 2)) + 1;
+            low = new int[maxNodes];
+            high = new int[maxNodes];
+            right = new int[maxNodes];
+            minLoad = new int[maxNodes * corridorCount];
+            common = new long[maxNodes * words];
+            build(0, entries.length);
+        }
+
+        /**
+         * Returns an allocation that uses none of the given venues and whose
+         * load on each corridor is at most the given room, or null if there
+         * is none.
+         */
+        Half find(long[] venues, int[] room) {
+            return entries.length == 0 ? null : find(0, venues, room);
+        }
+
+        /**
+         * Builds the subtree of entries[from .. to - 1], returning its root.
+         */
+        private int build(int from, int to) {
+            int node = nodeCount++;
+            low[node] = from;
+            high[node] = to;
+            int bestCorridor = -1; // the corridor whose loads vary the most
+            int bestSpread = 0;
+            for (int c = 0; c < corridorCount; c++) {
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (int i = from; i < to; i++) {
+                    min = Math.min(min, entries[i].load[c]);
+                    max = Math.max(max, entries[i].load[c]);
+                }
+                minLoad[node * corridorCount + c] = min;
+                if (max - min > bestSpread) {
+                    bestCorridor = c;
+                    bestSpread = max - min;
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                long shared = -1L; // the venues used by all so far
+                for (int i = from; i < to; i++) {
+                    shared &= entries[i].venues[w];
+                }
+                common[node * words + w] = shared;
+            }
+            if (to - from <= LEAF_SIZE) {
+                right[node] = -1;
+                return node;
+            }
+            int middle = (from + to) >>> 1;
+            if (bestCorridor >= 0) {
+                select(from, to, middle, bestCorridor);
+            }
+            build(from, middle);
+            right[node] = build(middle, to);
+            return node;
+        }
+
+        /**
+         * Reorders entries[from .. to - 1] so that entries[middle] has the
+         * load on the corridor it would have if they were sorted by it, with
+         * no higher loads before it and no lower loads after it.
+         */
+        private void select(int from, int to, int middle, int corridor) {
+            int left = from;
+            int right = to - 1;
+            while (left < right) {
+                int pivot = entries[(left + right) >>> 1].load[corridor];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (entries[i].load[corridor] < pivot) {
+                        i++;
+                    }
+                    while (entries[j].load[corridor] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        Half swap = entries[i];
+                        entries[i++] = entries[j];
+                        entries[j--] = swap;
+                    }
+                }
+                if (middle <= j) {
+                    right = j;
+                } else if (middle >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns an allocation of the subtree of the given node that uses
+         * none of the given venues and fits in the given room, or null.
+         */
+        private Half find(int node, long[] venues, int[] room) {
+            visited++;
+            for (int c = 0; c < corridorCount; c++) {
+                if (minLoad[node * corridorCount + c] > room[c]) {
+                    return null;
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                if ((common[node * words + w] & venues[w]) != 0) {
+                    return null;
+                }
+            }
+            if (right[node] < 0) {
+                for (int i = low[node]; i < high[node]; i++) {
+                    if (entries[i].joins(venues, room)) {
+                        return entries[i];
+                    }
+                }
+                return null;
+            }
+            Half found = find(node + 1, venues, room);
+            return found != null ? found : find(right[node], venues, room);
+        }
+    }
+
+    /**
+     * An enumeration of the safe allocations of some of the events, each of
+     * which is visited in turn.
+     */
+    private abstract static class HalfEnumeration {
+
+        protected final CompiledProblem problem;
+        // the events of the half
+        protected final int[] events;
+        // the state of the partial allocation being extended
+        protected final long[] used;
+        protected final int[] load;
+        protected final int[] assignment;
+        // next[i] is the first venue that frame i has not yet tried
+        private final int[] next;
+
+        HalfEnumeration(CompiledProblem problem, int[] events) {
+            this.problem = problem;
+            this.events = events;
+            used = new long[CompiledProblem.words(problem.getVenueCount())];
+            load = new int[problem.getCorridorCount()];
+            assignment = new int[events.length];
+            next = new int[events.length];
+        }
+
+        /**
+         * Visits the allocation of all of the events that is in used, load
+         * and assignment, returning false to stop the enumeration.
+         */
+        protected abstract boolean visit();
+
+        /**
+         * Returns false if no extension of the partial allocation that is in
+         * used, load and assignment needs to be visited.
+         */
+        protected boolean promising() {
+            return true;
+        }
+
+        /**
+         * Visits every safe allocation of the events, returning false if the
+         * enumeration was stopped. The partial allocations are extended on an
+         * explicit stack, one frame per event, so the number of events is not
+         * limited by the call stack.
+         */
+        boolean enumerate() {
+            if (events.length == 0) {
+                return visit();
+            }
+            int i = 0; // the frame on top of the stack
+            next[0] = 0;
+            assignment[0] = -1;
+            while (i >= 0) {
+                int event = events[i];
+                if (assignment[i] >= 0) {
+                    // take back the last placement of this frame
+                    apply(event, assignment[i], -1);
+                    assignment[i] = -1;
+                }
+                int venue = nextVenue(i);
+                if (venue < 0) {
+                    i--;
+                    continue;
+                }
+                apply(event, venue, 1);
+                assignment[i] = venue;
+                if (!promising()) {
+                    continue;
+                }
+                if (i + 1 < events.length) {
+                    i++;
+                    // events of the same size are placed at increasing venues
+                    next[i] = problem.eventSize[events[i - 1]] == problem
+                            .eventSize[events[i]] ? venue + 1 : 0;
+                    assignment[i] = -1;
+                } else if (!visit()) {
+                    for (; i >= 0; i--) {
+                        apply(events[i], assignment[i], -1);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the first free venue from next[i] on that fits events[i],
+         * moving next[i] past it, or -1 if there is none.
+         */
+        private int nextVenue(int i) {
+            int event = events[i];
+            for (int venue = next[i]; venue < problem.getVenueCount();
+                    venue++) {
+                if ((used[venue >>> 6] & (1L << venue)) == 0 && fits(event,
+                        venue)) {
+                    next[i] = venue + 1;
+                    return venue;
+                }
+            }
+            next[i] = problem.getVenueCount();
+            return -1;
+        }
+
+        /**
+         * Returns true if the venue can host the event and the event's load
+         * there fits under the corridor capacities.
+         */
+        private boolean fits(int event, int venue) {
+            int[] venueLoad = problem.loads(event, venue);
+            if (venueLoad == null) {
+                return false;
+            }
+            int[] corridors = problem.venueCorridors[venue];
+            for (int k = 0; k < corridors.length; k++) {
+                if (load[corridors[k]] + venueLoad[k] > problem
+                        .corridorCapacity[corridors[k]]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds (sign == 1) or removes (sign == -1) the event at the venue.
+         */
+        private void apply(int event, int venue, int sign) {
+            int[] venueLoad = problem.loads(event, venue);
+            int[] corridors = problem.venueCorridors[venue];
+            for (int k = 0; k < corridors.length; k++) {
+                load[corridors[k]] += sign * venueLoad[k];
+            }
+            used[venue >>> 6] ^= 1L << venue;
+        }
+    }
+
+    /**
+     * Keeps the allocations of a half whose loads are not dominated by
+     * another with the same venues, and indexes them.
+     */
+    private static class Indexer extends HalfEnumeration {
+
+        private final int maxEntries;
+        // the allocations kept so far, by the venues they use
+        private final Map<VenueSet, List<Half>> kept;
+        // the number of allocations kept so far
+        private int size;
+        // the number of allocations visited so far
+        private int visits;
+        // whether every allocation of the events was visited
+        private boolean complete;
+
+        Indexer(CompiledProblem problem, int[] events, int maxEntries) {
+            super(problem, events);
+            this.maxEntries = maxEntries;
+            kept = new HashMap<>();
+        }
+
+        /**
+         * Returns an index of the kept allocations of the first maxEntries
+         * allocations of the events, setting complete if there are no more.
+         */
+        LoadIndex run() {
+            complete = enumerate();
+            Half[] entries = new Half[size];
+            int i = 0; // the next free position in entries
+            for (List<Half> group : kept.values()) {
+                for (Half half : group) {
+                    entries[i++] = half;
+                }
+            }
+            return new LoadIndex(entries, load.length, used.length);
+        }
+
+        @Override
+        protected boolean visit() {
+            if (++visits > maxEntries) {
+                return false;
+            }
+            VenueSet key = new VenueSet(used.clone());
+            List<Half> group = kept.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                kept.put(key, group);
+            }
+            for (Half half : group) {
+                if (half.dominates(load)) {
+                    return true;
+                }
+            }
+            for (Iterator<Half> it = group.iterator(); it.hasNext();) {
+                Half half = it.next();
+                if (dominates(half.load)) {
+                    it.remove();
+                    size--;
+                }
+            }
+            group.add(new Half(key.venues, load.clone(), assignment.clone()));
+            size++;
+            return true;
+        }
+
+        /**
+         * Returns true if the current load on each corridor is at most the
+         * given load.
+         */
+        private boolean dominates(int[] other) {
+            for (int c = 0; c < load.length; c++) {
+                if (load[c] > other[c]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Looks up each allocation of a half in the index of the other half,
+     * until one joins.
+     */
+    private static class Prober extends HalfEnumeration {
+
+        private final LoadIndex index;
+        // the number of index nodes that the lookups may visit
+        private final long maxVisited;
+        // the capacity left on each corridor by the current allocation
+        private final int[] room;
+        // the allocation of the other half that joined, or null
+        private Half match;
+        // the allocation of this half that it joined
+        private int[] firstAssignment;
+
+        Prober(CompiledProblem problem, int[] events, int maxEntries,
+                LoadIndex index) {
+            super(problem, events);
+            this.index = index;
+            maxVisited = (long) maxEntries * NODES_PER_LOOKUP;
+            room = new int[load.length];
+        }
+
+        /**
+         * Looks up the allocations of the events, returning true if none
+         * joins, and false if one did (see match) or the lookups, of partial
+         * allocations too, visited more than NODES_PER_LOOKUP index nodes for
+         * each of maxEntries.
+         */
+        boolean run() {
+            return enumerate() && index.visited <= maxVisited;
+        }
+
+        /**
+         * Returns false if no allocation in the index joins the partial
+         * allocation, since extending it only uses more venues and corridor
+         * capacity.
+         */
+        @Override
+        protected boolean promising() {
+            return find() != null;
+        }
+
+        @Override
+        protected boolean visit() {
+            match = find();
+            if (match != null) {
+                firstAssignment = assignment.clone();
+                return false;
+            }
+            return index.visited <= maxVisited;
+        }
+
+        /**
+         * Returns an allocation in the index that joins the current one, or
+         * null if there is none or the lookups have visited too many nodes.
+         */
+        private Half find() {
+            if (index.visited > maxVisited) {
+                return null;
+            }
+            for (int c = 0; c < load.length; c++) {
+                room[c] = problem.corridorCapacity[c] - load[c];
+            }
+            return index.find(used, room);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package planner;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Provides a method for finding a safe allocation of events to venues that
+ * spreads the search over the worker threads of a ForkJoinPool.
+ * </p>
+ *
+ * <p>
+ * The search tree is split on the placements of the first few events: each
+ * possible placement of those events becomes its own task, which idle workers
+ * can steal. Below the split depth each task searches its subtree on a single
+ * thread, using its own copy of the compiled search state, which is set up
+ * in the same way as the search of Allocator.allocateFirst. As soon as any
+ * task finds a safe allocation, all of the other tasks stop searching.
+ * </p>
+ */
+public class ParallelAllocator {
+
+    // the number of event placements the search tree is split on by default
+    public static final int DEFAULT_SPLIT_DEPTH = 3;
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise. The search runs in the
+     * common ForkJoinPool and is split on the first DEFAULT_SPLIT_DEPTH event
+     * placements.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues) {
+        return allocate(events, venues, ForkJoinPool.commonPool(),
+                DEFAULT_SPLIT_DEPTH);
+    }
+
+    /**
+     * Returns a safe allocation of events to venues, if there is at least one
+     * possible safe allocation, or null otherwise. The search runs in the given
+     * pool and is split into separate tasks on the placements of the first
+     * splitDepth events.
+     *
+     * @param events
+     *            the events to allocate
+     * @param venues
+     *            the venues that the events can be allocated to
+     * @param pool
+     *            the pool that the search runs in
+     * @param splitDepth
+     *            the number of event placements that the search tree is split
+     *            on
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues && pool !=
+     *          null
+     * @ensure Returns a safe allocation of events to venues, if there is at
+     *         least one possible safe allocation, or null otherwise.
+     * @throws IllegalArgumentException
+     *             if splitDepth is negative
+     */
+    public static Map<Event, Venue> allocate(List<Event> events,
+            List<Venue> venues, ForkJoinPool pool, int splitDepth) {
+        if (splitDepth < 0) {
+            throw new IllegalArgumentException(
+                    "The split depth cannot be negative.");
+        }
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        VenueDominance dominance = new VenueDominance(problem);
+        CapacityMatching matching = new CapacityMatching(problem, dominance);
+        if (!matching.isComplete()) {
+            // not even the capacities of the venues allow an allocation
+            return null;
+        }
+        // the first safe assignment found by any of the tasks
+        AtomicReference<int[]> result = new AtomicReference<>();
+        // cancelled as soon as any task finds a safe assignment
+        CancellationToken found = new CancellationToken();
+        AllocationSearch search = Allocator.newSearch(problem, matching,
+                dominance);
+        search.setCancellationToken(found);
+        pool.invoke(new SearchTask(search, splitDepth, result, found));
+        // returns null to signify that there is no possible safe allocation
+        return result.get() == null ? null : problem.toAllocation(result
+                .get());
+    }
+
+    /**
+     * A task that searches for a safe extension of one partial allocation.
+     */
+    @SuppressWarnings("serial")
+    private static class SearchTask extends RecursiveAction {
+
+        // the partial allocation that this task extends (owned by this task)
+        private final AllocationSearch search;
+        // the number of event placements the search tree is split on
+        private final int splitDepth;
+        // the first safe assignment found (shared by all tasks)
+        private final AtomicReference<int[]> result;
+        // cancelled as soon as any task finds a safe assignment (shared)
+        private final CancellationToken found;
+
+        SearchTask(AllocationSearch search, int splitDepth,
+                AtomicReference<int[]> result, CancellationToken found) {
+            this.search = search;
+            this.splitDepth = splitDepth;
+            this.result = result;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (found.isCancelled()) {
+                return;
+            }
+            int placed = search.getPlacedCount();
+            if (placed >= splitDepth || placed == search.getProblem()
+                    .getEventCount()) {
+                if (search.solve() && result.compareAndSet(null, search
+                        .getAssignment())) {
+                    found.cancel();
+                }
+                return;
+            }
+            // fork one task for each safe placement of the next event
+            List<SearchTask> subtasks = new ArrayList<>();
+            int event = search.nextEvent();
+            for (int v : search.getCandidates(event)) {
+                if (search.place(event, v)) {
+                    subtasks.add(new SearchTask(new AllocationSearch(search),
+                            splitDepth, result, found));
+                    search.unplace();
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+}
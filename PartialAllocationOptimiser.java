@@ -0,0 +1,489 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A branch-and-bound search for the safe allocation of as many of the events
+ * of a compiled problem as possible to its venues, or more generally of a
+ * subset of the events of the greatest total weight, for when not every event
+ * can be allocated.
+ * </p>
+ *
+ * <p>
+ * The search is an AllocationSearch with optional events, which decides the
+ * events one at a time, heaviest (and then largest) first: each is placed at
+ * one of the venues it fits at, least utilised first, or left out. The first
+ * allocation found is therefore the greedy one, and each allocation found
+ * after it (the incumbent) is heavier. The listener, if there is one, is told
+ * about each new incumbent and its weight.
+ * </p>
+ *
+ * <p>
+ * A node is pruned when the weight placed so far plus an upper bound on the
+ * weight of the undecided events that could still fit is no more than the
+ * incumbent's. The bound is the least of two, both computed from the free
+ * venues at which each undecided event alone fits:
+ * </p>
+ *
+ * <ul>
+ * <li>The heaviest subset of the undecided events that can be matched to
+ * distinct such venues. A venue that fits an event also fits every smaller
+ * event, so the venues that fit each event size are nested, and a subset can
+ * be matched iff, for each size, it has no more events of that size or more
+ * than there are free venues that fit the size. The subsets that can be
+ * matched form a matroid, so taking the undecided events heaviest first
+ * whenever they keep the subset matchable gives the heaviest one.</li>
+ * <li>For each corridor, the weight of the undecided events that fit at some
+ * venue that puts no traffic on it, plus a fractional knapsack of the others,
+ * each of which would put at least its least traffic at any such venue on
+ * the corridor, within the corridor's residual capacity.</li>
+ * </ul>
+ *
+ * <p>
+ * The bound at the root is an upper bound on every allocation, so the search
+ * stops as soon as an incumbent reaches it, which it does straight away when
+ * every event can be allocated.
+ * </p>
+ *
+ * <p>
+ * Events with the same size and weight are interchangeable, so symmetry
+ * breaking is on with the events classed by weight as well as size: they are
+ * placed at increasing venues, once one is left out so are the later ones,
+ * and only the lowest free venue of each venue class is tried.
+ * </p>
+ */
+public class PartialAllocationOptimiser {
+
+    // the problem being optimised
+    private final CompiledProblem problem;
+    // weight[e] is the weight of event e
+    private final int[] weight;
+    // the events in the order they are decided: heaviest, then largest,
+    // first, and rank[e] is the position of event e in that order
+    private final int[] events;
+    private final int[] rank;
+    // the number of corridors, and of words in a bitset of the venues
+    private final int corridorCount;
+    private final int words;
+    // fit[s] is the number of free venues that an event of size class s fits
+    // at, and need[s] is the number of events of size class s or more in the
+    // subset being built by bound
+    private final int[] fit;
+    private final int[] need;
+    // pending[s] is the number of undecided events of size class s,
+    // covered[s][c] is the number of the free venues that size class s fits
+    // at that put traffic on corridor c, and least[s][c] is the least traffic
+    // an event of size class s would put on corridor c at one of them
+    private final int[] pending;
+    private final int[][] covered;
+    private final int[][] least;
+    // the events that are items of the knapsack of a corridor, and the
+    // traffic each would put on the corridor (indexed by event id)
+    private final Integer[] items;
+    private final int[] itemLoad;
+    // the ids of the events, boxed once
+    private final Integer[] boxed;
+    // orders items by weight per unit of traffic, greatest first
+    private final Comparator<Integer> byDensity = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return Long.compare((long) weight[b] * itemLoad[a],
+                    (long) weight[a] * itemLoad[b]);
+        }
+    };
+
+    // the incumbent, in which unallocated events have venue -1, and its
+    // weight
+    private int[] best;
+    private long bestWeight;
+    // the upper bound on the weight of any safe allocation
+    private long rootBound;
+    // whether the incumbent is known to be optimal
+    private boolean optimal;
+
+    // when set, told about each new incumbent
+    private IncumbentListener listener;
+    // when set, the search gives up once this token is cancelled
+    private CancellationToken token;
+    // whether the last call to solve gave up
+    private boolean stopped;
+    // the search of the call to solve that is running, or null, and the
+    // number of nodes explored by the searches of the earlier calls
+    private AllocationSearch search;
+    private long nodes;
+
+    /*
+     * invariant: events is a permutation of the event ids in descending order
+     * of weight and then of size, rank is its inverse, and best is a safe
+     * partial allocation of weight bestWeight <= rootBound
+     */
+
+    /**
+     * Creates a new optimiser for the given problem, which allocates as many
+     * of its events as possible (every event has weight 1).
+     *
+     * @param problem
+     *            the problem to optimise
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public PartialAllocationOptimiser(CompiledProblem problem) {
+        this(problem, ones(problem.getEventCount()));
+    }
+
+    /**
+     * Creates a new optimiser for the given problem, which allocates the
+     * subset of its events with the greatest total weight.
+     *
+     * @param problem
+     *            the problem to optimise
+     * @param weight
+     *            the weight of each event, indexed by event id
+     * @throws NullPointerException
+     *             if problem or weight is null
+     * @throws IllegalArgumentException
+     *             if weight does not have one element for each event, or if
+     *             some weight is not positive
+     */
+    public PartialAllocationOptimiser(CompiledProblem problem, int[] weight) {
+        if (weight.length != problem.getEventCount()) {
+            throw new IllegalArgumentException(
+                    "There must be one weight for each event.");
+        }
+        for (int w : weight) {
+            if (w <= 0) {
+                throw new IllegalArgumentException(
+                        "The weights must be positive.");
+            }
+        }
+        this.problem = problem;
+        this.weight = weight.clone();
+        int eventCount = problem.getEventCount();
+        // sort the largest-first order by weight, keeping it among events of
+        // the same weight: each key is the negated weight in its high 32 bits
+        // and the position in the largest-first order in its low 32 bits
+        int[] bySize = problem.eventsBySizeDescending();
+        long[] keys = new long[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            keys[i] = ((long) -weight[bySize[i]] << 32) | i;
+        }
+        Arrays.sort(keys);
+        events = new int[eventCount];
+        rank = new int[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            events[i] = bySize[(int) keys[i]];
+            rank[events[i]] = i;
+        }
+        corridorCount = problem.getCorridorCount();
+        words = CompiledProblem.words(problem.getVenueCount());
+        fit = new int[problem.sizes.length];
+        need = new int[problem.sizes.length];
+        pending = new int[problem.sizes.length];
+        covered = new int[problem.sizes.length][corridorCount];
+        least = new int[problem.sizes.length][corridorCount];
+        items = new Integer[eventCount];
+        itemLoad = new int[eventCount];
+        boxed = new Integer[eventCount];
+        for (int e = 0; e < eventCount; e++) {
+            boxed[e] = e;
+        }
+    }
+
+    /**
+     * Sets the listener that is told about each new incumbent and its weight,
+     * or removes it if listener is null.
+     *
+     * @param listener
+     *            the listener to tell, or null
+     */
+    public void setListener(IncumbentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the token that the search polls at every node: once the token is
+     * cancelled, solve gives up and keeps the best allocation found so far. A
+     * null token means the search is never cancelled.
+     *
+     * @param token
+     *            the token to poll, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns true if the last call to solve gave up because its token was
+     * cancelled, and false otherwise.
+     *
+     * @return true iff the last search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns true if the best allocation found by the last call to solve is
+     * known to have the greatest weight of any safe allocation of a subset of
+     * the events.
+     *
+     * @return true iff the incumbent is optimal
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * Returns the number of nodes of the search tree explored so far.
+     *
+     * @return the number of nodes explored
+     */
+    public long getNodeCount() {
+        AllocationSearch running = search; // read once, as solve clears it
+        return nodes + (running == null ? 0 : running.getNodeCount());
+    }
+
+    /**
+     * Returns a copy of the best allocation found by the last call to solve,
+     * in which element e is the id of the venue of event e, or -1 if event e
+     * is not allocated.
+     *
+     * @return the venue id of each event in the incumbent, or -1
+     */
+    public int[] getBestAssignment() {
+        return best.clone();
+    }
+
+    /**
+     * Returns the total weight of the events allocated by the best allocation
+     * found by the last call to solve.
+     *
+     * @return the weight of the incumbent
+     */
+    public long getBestWeight() {
+        return bestWeight;
+    }
+
+    /**
+     * Returns the upper bound on the weight of every safe allocation that was
+     * computed at the root of the last call to solve.
+     *
+     * @return the root upper bound on the weight
+     */
+    public long getUpperBound() {
+        return rootBound;
+    }
+
+    /**
+     * Searches for the safe allocation of a subset of the events with the
+     * greatest total weight. Allocating none of the events is always safe, so
+     * some allocation is always found.
+     *
+     * @return the weight of the best allocation found, which is optimal unless
+     *         the search gave up
+     */
+    public long solve() {
+        best = new int[problem.getEventCount()];
+        Arrays.fill(best, -1);
+        bestWeight = 0;
+        stopped = false;
+        search = new AllocationSearch(problem);
+        search.setEventOrder(new EventOrder() {
+            @Override
+            public int score(AllocationSearch search, int event) {
+                return rank[event];
+            }
+        });
+        search.setVenueOrder(VenueOrder.LEAST_LOADED_FIRST);
+        search.setSymmetryBreaking(true);
+        search.setSymmetryClasses(weight);
+        search.setOptional(true);
+        search.setCancellationToken(token);
+        rootBound = bound(search);
+        optimal = rootBound == 0;
+        if (!optimal) {
+            search.setBound(new SearchBound() {
+                @Override
+                public boolean admits(AllocationSearch search) {
+                    return placedWeight(search) + bound(search) > bestWeight;
+                }
+            });
+            boolean found = search.solve();
+            while (found) {
+                improve(search);
+                if (bestWeight == rootBound) {
+                    break;
+                }
+                found = search.solveNext();
+            }
+            stopped = search.isStopped();
+            optimal = !stopped;
+        }
+        nodes += search.getNodeCount();
+        search = null;
+        return bestWeight;
+    }
+
+    /**
+     * Records the current allocation of the given search as the new
+     * incumbent and tells the listener.
+     */
+    private void improve(AllocationSearch search) {
+        best = search.getAssignment();
+        bestWeight = placedWeight(search);
+        if (listener != null) {
+            listener.improved(problem.toAllocation(best), bestWeight);
+        }
+    }
+
+    /**
+     * Returns the number of events that the given search has decided. The
+     * search decides the events in order, so they are the first ones.
+     */
+    private static int decided(AllocationSearch search) {
+        return search.getPlacedCount() + search.getLeftOutCount();
+    }
+
+    /**
+     * Returns the total weight of the events that the given search has
+     * placed.
+     */
+    private long placedWeight(AllocationSearch search) {
+        long total = 0; // the weight of the placed events found so far
+        for (int i = decided(search) - 1; i >= 0; i--) {
+            if (search.isPlaced(events[i])) {
+                total += weight[events[i]];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns an upper bound on the weight of the undecided events of the
+     * given search that can still be placed: the least of the matching bound
+     * and the knapsack bound of each corridor.
+     */
+    private long bound(AllocationSearch search) {
+        int d = decided(search); // the first undecided event is events[d]
+        Arrays.fill(pending, 0);
+        for (int i = d; i < events.length; i++) {
+            pending[problem.eventSizeClass[events[i]]]++;
+        }
+        // find the free venues that each pending size fits at
+        for (int s = 0; s < fit.length; s++) {
+            fit[s] = 0;
+            need[s] = 0;
+            if (pending[s] == 0) {
+                continue;
+            }
+            Arrays.fill(covered[s], 0);
+            Arrays.fill(least[s], Integer.MAX_VALUE);
+            for (int w = 0; w < words; w++) {
+                long bits = search.freeHosts(s, w);
+                while (bits != 0) {
+                    int venue = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int[] venueLoad = problem.sizeLoad[s][venue];
+                    if (!fitsLoad(search, venueLoad, venue)) {
+                        continue;
+                    }
+                    fit[s]++;
+                    int[] corridors = problem.venueCorridors[venue];
+                    for (int k = 0; k < corridors.length; k++) {
+                        covered[s][corridors[k]]++;
+                        least[s][corridors[k]] = Math.min(least[s][
+                                corridors[k]], venueLoad[k]);
+                    }
+                }
+            }
+        }
+        long bound = 0; // the matching bound
+        for (int i = d; i < events.length; i++) {
+            int e = events[i];
+            // the events are heaviest first, so take each one that keeps
+            // every size within the venues that fit it (which only needs
+            // checking for pending sizes, since the venues of the others
+            // include those of the next larger pending size)
+            int sizeClass = problem.eventSizeClass[e];
+            boolean fits = true; // whether the event can be added
+            for (int s = 0; s <= sizeClass && fits; s++) {
+                fits = pending[s] == 0 || need[s] < fit[s];
+            }
+            if (fits) {
+                for (int s = 0; s <= sizeClass; s++) {
+                    need[s]++;
+                }
+                bound += weight[e];
+            }
+        }
+        for (int c = 0; c < corridorCount; c++) {
+            bound = Math.min(bound, corridorBound(search, d, c));
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the knapsack bound of the given corridor on the weight of the
+     * events of events[d ..] that can still be placed in the given search,
+     * given the venues that bound found for each size.
+     */
+    private long corridorBound(AllocationSearch search, int d, int corridor) {
+        long total = 0; // the weight of the events that are free to place
+        int count = 0; // the number of items
+        for (int i = d; i < events.length; i++) {
+            int event = events[i];
+            int s = problem.eventSizeClass[event];
+            if (fit[s] == 0) {
+                continue;
+            }
+            if (covered[s][corridor] < fit[s] || least[s][corridor] == 0) {
+                // the event can be placed without traffic on the corridor
+                total += weight[event];
+            } else {
+                itemLoad[event] = least[s][corridor];
+                items[count++] = boxed[event];
+            }
+        }
+        Arrays.sort(items, 0, count, byDensity);
+        // the capacity left in the knapsack
+        long room = search.getResidual(corridor);
+        for (int i = 0; i < count && room > 0; i++) {
+            int event = items[i];
+            if (itemLoad[event] <= room) {
+                total += weight[event];
+                room -= itemLoad[event];
+            } else {
+                // only a fraction of the event fits
+                total += weight[event] * room / itemLoad[event];
+                room = 0;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns true if the given loads on the corridors of the given venue fit
+     * under the residual capacities of the corridors in the given search.
+     */
+    private boolean fitsLoad(AllocationSearch search, int[] venueLoad,
+            int venue) {
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            if (venueLoad[k] > search.getResidual(corridors[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array of the given length whose elements are all 1.
+     */
+    private static int[] ones(int length) {
+        int[] result = new int[length];
+        Arrays.fill(result, 1);
+        return result;
+    }
+
+}
@@ -0,0 +1,518 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A branch-and-bound search for the safe allocation of the events of a
+ * compiled problem to its venues that leaves the most headroom: the one whose
+ * peak utilisation, the greatest ratio of traffic to capacity over all of the
+ * corridors, is smallest.
+ * </p>
+ *
+ * <p>
+ * The search is an AllocationSearch that places the events largest first,
+ * each at the venue that gives its corridors the lowest utilisation first, so
+ * the first safe allocation found is usually a good one. Each time it finds
+ * an allocation better than the best one so far (the incumbent), the limit of
+ * each corridor is lowered to just below the incumbent's peak utilisation and
+ * the search is resumed, so every allocation it finds from then on is
+ * strictly better. The listener, if there is one, is told about each new
+ * incumbent.
+ * </p>
+ *
+ * <p>
+ * Two admissible lower bounds prune the search at every node. The unplaced
+ * events must still be matchable to distinct free venues at which each of
+ * them alone would fit under the limits. A venue that fits an event also fits
+ * every smaller event, so the venues that fit each event size are nested, and
+ * the check is exact and cheap: for each size, there must be at least as many
+ * free venues that fit it as there are unplaced events of that size or more.
+ * And each unplaced event puts at least its least traffic at any venue that
+ * can host it on each corridor, so the traffic on a corridor plus the sum of
+ * those least traffics of the unplaced events must fit under its limit. At
+ * the root, the same two bounds give the smallest peak utilisation that any
+ * allocation could have, and the search stops as soon as an incumbent reaches
+ * it.
+ * </p>
+ *
+ * <p>
+ * Equivalent venues and events are treated as in AllocationSearch, with
+ * symmetry breaking on.
+ * </p>
+ */
+public class PeakUtilisationOptimiser {
+
+    // the problem being optimised
+    private final CompiledProblem problem;
+    // the number of venues and corridors
+    private final int venueCount;
+    private final int corridorCount;
+    // classSize[s] is the number of events of size class s
+    private final int[] classSize;
+    // leastLoad[s][c] is the least traffic that an event of size class s
+    // generates on corridor c at any venue that can host it alone
+    private final int[][] leastLoad;
+    // the size classes s of some event with leastLoad[s][c] > 0 for some
+    // corridor c, which are the only ones that the least loads bound
+    private final int[] loadedClasses;
+    // limit[c] is the greatest load that corridor c may carry in an
+    // allocation better than the incumbent
+    private final int[] limit;
+
+    // the incumbent, or null, and its peak utilisation bestLoad /
+    // bestCapacity
+    private int[] best;
+    private long bestLoad;
+    private long bestCapacity;
+    // the root lower bound on the peak utilisation, boundLoad / boundCapacity
+    private long boundLoad;
+    private long boundCapacity;
+    // whether the incumbent is known to be optimal
+    private boolean optimal;
+
+    // when set, told about each new incumbent
+    private IncumbentListener listener;
+    // when set, the search gives up once this token is cancelled
+    private CancellationToken token;
+    // when hasDeadline is set, the search gives up once System.nanoTime()
+    // passes deadline
+    private boolean hasDeadline;
+    private long deadline;
+    // whether the last call to solve gave up
+    private boolean stopped;
+    // the search of the call to solve that is running, or null, and the
+    // number of nodes explored by the searches of the earlier calls
+    private AllocationSearch search;
+    private long nodes;
+    // the greatest number of events placed at once by the last call to solve
+    private int maxDepth;
+
+    /*
+     * invariant: limit[c] <= the capacity of corridor c, every allocation
+     * better than best keeps the load of each corridor c within limit[c], and
+     * the peak utilisation of best is bestLoad / bestCapacity
+     */
+
+    /**
+     * Creates a new optimiser for the given problem.
+     *
+     * @param problem
+     *            the problem to optimise
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public PeakUtilisationOptimiser(CompiledProblem problem) {
+        this.problem = problem;
+        venueCount = problem.getVenueCount();
+        corridorCount = problem.getCorridorCount();
+        classSize = new int[problem.sizes.length];
+        for (int e = 0; e < problem.getEventCount(); e++) {
+            classSize[problem.eventSizeClass[e]]++;
+        }
+        leastLoad = new int[problem.sizes.length][corridorCount];
+        int[] venueLoad = new int[corridorCount]; // the load of one venue
+        for (int s = 0; s < classSize.length; s++) {
+            Arrays.fill(leastLoad[s], Integer.MAX_VALUE);
+            for (int v = 0; v < venueCount; v++) {
+                int[] sizeLoad = problem.sizeLoad[s][v];
+                if (sizeLoad == null || !fitsAlone(sizeLoad, v)) {
+                    continue;
+                }
+                Arrays.fill(venueLoad, 0);
+                int[] corridors = problem.venueCorridors[v];
+                for (int k = 0; k < corridors.length; k++) {
+                    venueLoad[corridors[k]] = sizeLoad[k];
+                }
+                for (int c = 0; c < corridorCount; c++) {
+                    leastLoad[s][c] = Math.min(leastLoad[s][c], venueLoad[c]);
+                }
+            }
+            for (int c = 0; c < corridorCount; c++) {
+                if (leastLoad[s][c] == Integer.MAX_VALUE) {
+                    // no venue can host the size, which the matching finds
+                    leastLoad[s][c] = 0;
+                }
+            }
+        }
+        int loaded = 0; // the number of loaded classes found so far
+        int[] classes = new int[classSize.length];
+        for (int s = 0; s < classSize.length; s++) {
+            for (int c = 0; c < corridorCount; c++) {
+                if (classSize[s] > 0 && leastLoad[s][c] > 0) {
+                    classes[loaded++] = s;
+                    break;
+                }
+            }
+        }
+        loadedClasses = Arrays.copyOf(classes, loaded);
+        limit = problem.corridorCapacity.clone();
+    }
+
+    /**
+     * Sets the listener that is told about each new incumbent, or removes it
+     * if listener is null.
+     *
+     * @param listener
+     *            the listener to tell, or null
+     */
+    public void setListener(IncumbentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the token that the search polls at every node: once the token is
+     * cancelled, solve gives up and keeps the best allocation found so far. A
+     * null token means the search is never cancelled.
+     *
+     * @param token
+     *            the token to poll, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Sets the time at which the search gives up and keeps the best
+     * allocation found so far, as a value of System.nanoTime().
+     *
+     * @param deadline
+     *            the value of System.nanoTime() after which solve gives up
+     */
+    public void setDeadline(long deadline) {
+        this.hasDeadline = true;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Removes the deadline of the search, if it has one.
+     */
+    public void clearDeadline() {
+        hasDeadline = false;
+    }
+
+    /**
+     * Returns true if the last call to solve gave up because its deadline
+     * passed or its token was cancelled, and false otherwise.
+     *
+     * @return true iff the last search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns true if the best allocation found by the last call to solve is
+     * known to have the smallest peak utilisation of any safe allocation.
+     *
+     * @return true iff the incumbent is optimal
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * Returns the number of nodes of the search tree explored so far.
+     *
+     * @return the number of nodes explored
+     */
+    public long getNodeCount() {
+        AllocationSearch running = search; // read once, as solve clears it
+        return nodes + (running == null ? 0 : running.getNodeCount());
+    }
+
+    /**
+     * Returns the greatest number of events that were placed at once by the
+     * last call to solve.
+     *
+     * @return the depth reached by the last search
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns a copy of the best allocation found by the last call to solve,
+     * in which element e is the id of the venue of event e, or null if none
+     * was found.
+     *
+     * @return the venue id of each event in the incumbent, or null
+     */
+    public int[] getBestAssignment() {
+        return best == null ? null : best.clone();
+    }
+
+    /**
+     * Returns the peak utilisation of the best allocation found by the last
+     * call to solve, or -1 if none was found.
+     *
+     * @return the peak utilisation of the incumbent, or -1
+     */
+    public double getBestPeak() {
+        return best == null ? -1 : (double) bestLoad / bestCapacity;
+    }
+
+    /**
+     * Returns the lower bound on the peak utilisation of every safe
+     * allocation that was computed at the root of the last call to solve, or
+     * -1 if the root showed that there is no safe allocation.
+     *
+     * @return the root lower bound on the peak utilisation, or -1
+     */
+    public double getLowerBound() {
+        return boundCapacity == 0 ? -1 : (double) boundLoad / boundCapacity;
+    }
+
+    /**
+     * Searches for the safe allocation of the events with the smallest peak
+     * utilisation.
+     *
+     * @return true if some safe allocation was found (the best of which is
+     *         returned by getBestAssignment, and is optimal unless the search
+     *         gave up), and false if there is none, or if the search gave up
+     *         before finding one
+     */
+    public boolean solve() {
+        System.arraycopy(problem.corridorCapacity, 0, limit, 0, limit.length);
+        best = null;
+        optimal = false;
+        stopped = false;
+        maxDepth = 0;
+        if (computeBound()) {
+            search = new AllocationSearch(problem);
+            search.setEventOrder(EventOrder.LARGEST_FIRST);
+            search.setVenueOrder(VenueOrder.LEAST_LOADED_FIRST);
+            search.setSymmetryBreaking(true);
+            search.setCancellationToken(token);
+            if (hasDeadline) {
+                search.setDeadline(deadline);
+            }
+            search.setBound(new SearchBound() {
+                @Override
+                public boolean admits(AllocationSearch search) {
+                    return withinLeastLoads(search) && canComplete(search);
+                }
+            });
+            boolean found = search.solve();
+            while (found) {
+                improve(search);
+                if (optimal) {
+                    break;
+                }
+                found = search.solveNext();
+            }
+            stopped = search.isStopped();
+            nodes += search.getNodeCount();
+            maxDepth = search.getMaxDepth();
+            search = null;
+        }
+        if (!stopped && best != null) {
+            // the whole tree was searched, or the bound was reached
+            optimal = true;
+        }
+        return best != null;
+    }
+
+    /**
+     * Records the current (complete) allocation of the search as the new
+     * incumbent, lowers the limits of the search to just below its peak
+     * utilisation, tells the listener, and sets optimal if the incumbent has
+     * reached the root bound.
+     */
+    private void improve(AllocationSearch search) {
+        long peakLoad = 0; // the peak utilisation is peakLoad / peakCapacity
+        long peakCapacity = 1;
+        for (int c = 0; c < corridorCount; c++) {
+            long load = search.getLoad(c);
+            if (load * peakCapacity > peakLoad
+                    * problem.corridorCapacity[c]) {
+                peakLoad = load;
+                peakCapacity = problem.corridorCapacity[c];
+            }
+        }
+        best = search.getAssignment();
+        bestLoad = peakLoad;
+        bestCapacity = peakCapacity;
+        // a better allocation must keep load[c] / capacity[c] below the peak
+        for (int c = 0; c < corridorCount; c++) {
+            limit[c] = (int) Math.min(limit[c], (peakLoad
+                    * problem.corridorCapacity[c] - 1) / peakCapacity);
+            search.setCorridorLimit(c, Math.max(limit[c], 0));
+        }
+        optimal = peakLoad * boundCapacity <= boundLoad * peakCapacity;
+        if (listener != null) {
+            listener.improved(problem.toAllocation(best), getBestPeak());
+        }
+    }
+
+    /**
+     * Returns true if the unplaced events of the given search can be matched
+     * to distinct free venues at which each of them alone fits under the
+     * limits. The venues that fit an event size include those that fit every
+     * larger size, so it is enough to count, for each size from the largest
+     * down, the free venues that fit it.
+     */
+    private boolean canComplete(AllocationSearch search) {
+        int needed = 0; // the number of unplaced events of this size or more
+        for (int s = classSize.length - 1; s >= 0; s--) {
+            int remaining = classSize[s] - search.countPlaced(s);
+            if (remaining == 0) {
+                continue;
+            }
+            needed += remaining;
+            if (search.countFree(s, needed) < needed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the least traffic that the unplaced events of the given
+     * search generate on each corridor fits under its residual capacity.
+     */
+    private boolean withinLeastLoads(AllocationSearch search) {
+        if (loadedClasses.length == 0) {
+            return true;
+        }
+        for (int c = 0; c < corridorCount; c++) {
+            long least = 0; // the least traffic of the unplaced events
+            for (int s : loadedClasses) {
+                least += (long) (classSize[s] - search.countPlaced(s))
+                        * leastLoad[s][c];
+            }
+            if (least > search.getResidual(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the root lower bound on the peak utilisation: the greater of
+     * the smallest utilisation u such that the events can be matched to
+     * distinct venues at which each of them alone would give no corridor a
+     * utilisation above u, and the greatest utilisation of any corridor
+     * carrying the least traffic of every event. Returns false, leaving the
+     * bound at 0 / 0, if there is no such u at most 1, or if the least
+     * traffic overflows some corridor, in which case there is no safe
+     * allocation.
+     */
+    private boolean computeBound() {
+        boundLoad = 0;
+        boundCapacity = 0;
+        // the utilisation each event size alone gives each venue that can
+        // host it without overflowing any corridor, as load / capacity pairs
+        List<long[]> candidates = new ArrayList<>();
+        final long[][] venueLoad = new long[classSize.length][venueCount];
+        final long[][] venueCapacity = new long[classSize.length][venueCount];
+        for (int s = 0; s < classSize.length; s++) {
+            for (int v = 0; v < venueCount; v++) {
+                venueCapacity[s][v] = -1; // marks venues that cannot be used
+                int[] sizeLoad = problem.sizeLoad[s][v];
+                if (classSize[s] == 0 || sizeLoad == null || !fitsAlone(
+                        sizeLoad, v)) {
+                    continue;
+                }
+                long peakLoad = 0;
+                long peakCapacity = 1;
+                int[] corridors = problem.venueCorridors[v];
+                for (int k = 0; k < corridors.length; k++) {
+                    int capacity = problem.corridorCapacity[corridors[k]];
+                    if (sizeLoad[k] * peakCapacity > peakLoad * capacity) {
+                        peakLoad = sizeLoad[k];
+                        peakCapacity = capacity;
+                    }
+                }
+                venueLoad[s][v] = peakLoad;
+                venueCapacity[s][v] = peakCapacity;
+                candidates.add(new long[] { peakLoad, peakCapacity });
+            }
+        }
+        Collections.sort(candidates, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0] * b[1], b[0] * a[1]);
+            }
+        });
+        // binary search for the first candidate at which the events match
+        int low = 0;
+        int high = candidates.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long[] u = candidates.get(middle);
+            if (matchesWithin(u[0], u[1], venueLoad, venueCapacity)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        long matchLoad = 0; // the matching bound is matchLoad / matchCapacity
+        long matchCapacity = 1;
+        if (low < candidates.size()) {
+            matchLoad = candidates.get(low)[0];
+            matchCapacity = candidates.get(low)[1];
+        } else if (problem.getEventCount() > 0) {
+            return false;
+        }
+        for (int c = 0; c < corridorCount; c++) {
+            long least = 0; // the least traffic of the events on corridor c
+            for (int s = 0; s < classSize.length; s++) {
+                least += (long) classSize[s] * leastLoad[s][c];
+            }
+            int capacity = problem.corridorCapacity[c];
+            if (least > capacity) {
+                return false;
+            }
+            if (least * matchCapacity > matchLoad * capacity) {
+                matchLoad = least;
+                matchCapacity = capacity;
+            }
+        }
+        boundLoad = matchLoad;
+        boundCapacity = matchCapacity;
+        return true;
+    }
+
+    /**
+     * Returns true if the events can be matched to distinct venues at which
+     * each of them alone gives a utilisation of at most peakLoad /
+     * peakCapacity, given the utilisation each size gives each venue.
+     */
+    private boolean matchesWithin(long peakLoad, long peakCapacity,
+            long[][] venueLoad, long[][] venueCapacity) {
+        int needed = 0; // the number of events of this size or more
+        for (int s = classSize.length - 1; s >= 0; s--) {
+            needed += classSize[s];
+            if (classSize[s] == 0) {
+                continue;
+            }
+            int found = 0; // the number of venues within the utilisation
+            for (int v = 0; v < venueCount && found < needed; v++) {
+                if (venueCapacity[s][v] >= 0 && venueLoad[s][v]
+                        * peakCapacity <= peakLoad * venueCapacity[s][v]) {
+                    found++;
+                }
+            }
+            if (found < needed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given loads on the corridors of the given venue fit
+     * under the capacity of every corridor.
+     */
+    private boolean fitsAlone(int[] venueLoad, int venue) {
+        int[] corridors = problem.venueCorridors[venue];
+        for (int k = 0; k < corridors.length; k++) {
+            if (venueLoad[k] > problem.corridorCapacity[corridors[k]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
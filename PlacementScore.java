@@ -0,0 +1,48 @@
+package planner;
+
+/**
+ * <p>
+ * A score of placing an event at a venue, used to rank safe allocations.
+ * </p>
+ *
+ * <p>
+ * The score of an allocation is the sum of the scores of its placements, and
+ * allocations with higher scores are better. Since the score of each
+ * placement is known before the rest of the allocation is, a search can bound
+ * the score of every completion of a partial allocation and prune those that
+ * cannot score well enough (see TopKAllocator).
+ * </p>
+ */
+public interface PlacementScore {
+
+    /**
+     * Scores allocations by their total headroom: the score of a placement is
+     * minus the total traffic the event generates at the venue, so the score
+     * of an allocation is its total headroom over all corridors, less the
+     * total capacity of the corridors.
+     */
+    PlacementScore HEADROOM = new PlacementScore() {
+        @Override
+        public long score(Event event, Venue venue) {
+            Traffic traffic = venue.getTraffic(event);
+            long total = 0; // the total traffic found so far
+            for (Corridor corridor : traffic.getCorridorsWithTraffic()) {
+                total += traffic.getTraffic(corridor);
+            }
+            return -total;
+        }
+    };
+
+    /**
+     * Returns the score of placing the given event at the given venue, which
+     * can host it. Higher scores are better.
+     *
+     * @param event
+     *            the event being placed
+     * @param venue
+     *            a venue that can host the event
+     * @return the score of the placement
+     */
+    long score(Event event, Venue venue);
+
+}
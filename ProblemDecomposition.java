@@ -0,0 +1,180 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Splits the venues of a compiled problem into independent components: sets
+ * of venues such that the traffic of an event at a venue in one component
+ * never shares a corridor with the traffic of an event at a venue in another.
+ * </p>
+ *
+ * <p>
+ * The components are the connected components of the graph that joins each
+ * venue to the corridors it puts traffic on. Venues that put traffic on no
+ * corridor cannot interact with any other venue, so rather than each being a
+ * component on its own, they are all put in one unconstrained component, in
+ * which every allocation of events that the venues can host is safe.
+ * </p>
+ *
+ * <p>
+ * Components are numbered in order of their lowest venue id, and the venues
+ * of each component are listed in increasing order of id.
+ * </p>
+ */
+public class ProblemDecomposition {
+
+    // the problem that is decomposed
+    private final CompiledProblem problem;
+    // component[v] is the component of venue v
+    private final int[] component;
+    // venues[k] are the venues of component k, in increasing order of id
+    private final int[][] venues;
+    // the unconstrained component, or -1 if every venue has a corridor
+    private final int unconstrained;
+
+    /*
+     * invariant: venues[component[v]] contains v for every venue v, and two
+     * venues that put traffic on the same corridor are in the same component
+     */
+
+    /**
+     * Decomposes the venues of the given problem into independent components.
+     *
+     * @param problem
+     *            the problem to decompose
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public ProblemDecomposition(CompiledProblem problem) {
+        this.problem = problem;
+        int venueCount = problem.getVenueCount();
+        // a union-find forest over the venues
+        int[] parent = new int[venueCount];
+        for (int v = 0; v < venueCount; v++) {
+            parent[v] = v;
+        }
+        // first[c] is the first venue next to corridor c, or -1
+        int[] first = new int[problem.getCorridorCount()];
+        Arrays.fill(first, -1);
+        int loose = -1; // the first venue with no corridors
+        for (int v = 0; v < venueCount; v++) {
+            int[] corridors = problem.venueCorridors[v];
+            if (corridors.length == 0) {
+                if (loose < 0) {
+                    loose = v;
+                } else {
+                    union(parent, loose, v);
+                }
+            }
+            for (int c : corridors) {
+                if (first[c] < 0) {
+                    first[c] = v;
+                } else {
+                    union(parent, first[c], v);
+                }
+            }
+        }
+        // number the components in order of their lowest venue
+        component = new int[venueCount];
+        int[] number = new int[venueCount]; // the component of each root
+        Arrays.fill(number, -1);
+        int count = 0; // the number of components found so far
+        int[] size = new int[venueCount];
+        for (int v = 0; v < venueCount; v++) {
+            int root = find(parent, v);
+            if (number[root] < 0) {
+                number[root] = count++;
+            }
+            component[v] = number[root];
+            size[component[v]]++;
+        }
+        venues = new int[count][];
+        for (int k = 0; k < count; k++) {
+            venues[k] = new int[size[k]];
+            size[k] = 0;
+        }
+        for (int v = 0; v < venueCount; v++) {
+            venues[component[v]][size[component[v]]++] = v;
+        }
+        unconstrained = loose < 0 ? -1 : component[loose];
+    }
+
+    /**
+     * Returns the problem that was decomposed.
+     *
+     * @return the problem that was decomposed
+     */
+    public CompiledProblem getProblem() {
+        return problem;
+    }
+
+    /**
+     * Returns the number of components.
+     *
+     * @return the number of components
+     */
+    public int getComponentCount() {
+        return venues.length;
+    }
+
+    /**
+     * Returns the component that the given venue is in.
+     *
+     * @param venue
+     *            the id of a venue
+     * @return the component of the venue
+     */
+    public int getComponent(int venue) {
+        return component[venue];
+    }
+
+    /**
+     * Returns the ids of the venues in the given component, in increasing
+     * order.
+     *
+     * @param component
+     *            a component
+     * @return the venues of the component
+     */
+    public int[] getVenues(int component) {
+        return venues[component].clone();
+    }
+
+    /**
+     * Returns true if the given component is the one made up of the venues
+     * that put traffic on no corridor, and false otherwise.
+     *
+     * @param component
+     *            a component
+     * @return true iff the component is unconstrained
+     */
+    public boolean isUnconstrained(int component) {
+        return component == unconstrained;
+    }
+
+    /**
+     * Returns the root of the tree of the given venue, halving the path to it
+     * on the way.
+     */
+    private static int find(int[] parent, int venue) {
+        while (parent[venue] != venue) {
+            parent[venue] = parent[parent[venue]];
+            venue = parent[venue];
+        }
+        return venue;
+    }
+
+    /**
+     * Joins the trees of the given venues.
+     */
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            // keep the lower venue as the root
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+}
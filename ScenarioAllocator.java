@@ -0,0 +1,145 @@
+package planner;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Solves many what-if scenarios that allocate different lists of events to
+ * the same venues.
+ * </p>
+ *
+ * <p>
+ * The venues and the corridors they put traffic on are compiled once, when
+ * the allocator is created, and every scenario shares that compiled data (see
+ * CompiledProblem.withEvents), so a scenario only has to compile its own
+ * events. The dominance order of the venues (see VenueDominance) is shared in
+ * the same way. The scenarios are independent, so they are solved concurrently on
+ * the worker threads of a ForkJoinPool, each in the same way as
+ * Allocator.allocateFirst, and the results are returned in the order of the
+ * scenarios.
+ * </p>
+ */
+public class ScenarioAllocator {
+
+    // the venues compiled with no events
+    private final CompiledProblem venues;
+    // the dominance order of the venues
+    private final VenueDominance dominance;
+
+    /*
+     * invariant: venues != null && venues.getEventCount() == 0 && dominance
+     * is the dominance order of venues
+     */
+
+    /**
+     * Creates an allocator for scenarios that allocate events to the given
+     * venues, compiling the venues.
+     *
+     * @param venues
+     *            the venues that the events of every scenario can be allocated
+     *            to
+     * @throws NullPointerException
+     *             if venues is null or contains null
+     */
+    public ScenarioAllocator(List<Venue> venues) {
+        this.venues = new CompiledProblem(new ArrayList<Event>(), venues);
+        dominance = new VenueDominance(this.venues);
+    }
+
+    /**
+     * Returns, for each of the given scenarios in order, a safe allocation of
+     * its events to the venues, or null if there is none. The scenarios are
+     * solved in the common ForkJoinPool.
+     *
+     * @require scenarios != null && !scenarios.contains(null) && no scenario
+     *          contains null or duplicate events && the venues of this
+     *          allocator do not contain duplicate venues.
+     * @ensure Returns a list whose i-th element is a safe allocation of the
+     *         events of scenarios.get(i) to the venues, if there is one, or
+     *         null otherwise.
+     */
+    public List<Map<Event, Venue>> allocateAll(List<List<Event>> scenarios) {
+        return allocateAll(scenarios, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns, for each of the given scenarios in order, a safe allocation of
+     * its events to the venues, or null if there is none. The scenarios are
+     * solved in the given pool.
+     *
+     * @param scenarios
+     *            the lists of events to allocate
+     * @param pool
+     *            the pool that the scenarios are solved in
+     * @require scenarios != null && !scenarios.contains(null) && no scenario
+     *          contains null or duplicate events && the venues of this
+     *          allocator do not contain duplicate venues.
+     * @ensure Returns a list whose i-th element is a safe allocation of the
+     *         events of scenarios.get(i) to the venues, if there is one, or
+     *         null otherwise.
+     * @throws NullPointerException
+     *             if pool is null
+     */
+    public List<Map<Event, Venue>> allocateAll(List<List<Event>> scenarios,
+            ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("The pool cannot be null.");
+        }
+        final List<Scenario> tasks = new ArrayList<>();
+        for (List<Event> events : scenarios) {
+            tasks.add(new Scenario(events));
+        }
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        List<Map<Event, Venue>> results = new ArrayList<>();
+        for (Scenario task : tasks) {
+            results.add(task.result);
+        }
+        return results;
+    }
+
+    /**
+     * Returns a safe allocation of the given events to the venues, or null if
+     * there is none, without using a pool.
+     *
+     * @require events != null && !events.contains(null) && events does not
+     *          contain duplicate events && the venues of this allocator do
+     *          not contain duplicate venues.
+     * @ensure Returns a safe allocation of events to the venues, if there is
+     *         at least one possible safe allocation, or null otherwise.
+     */
+    public Map<Event, Venue> allocate(List<Event> events) {
+        return Allocator.allocateFirst(venues.withEvents(events), dominance);
+    }
+
+    /**
+     * A task that solves one scenario.
+     */
+    private class Scenario extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // the events of the scenario
+        private final List<Event> events;
+        // the allocation found, or null
+        private Map<Event, Venue> result;
+
+        Scenario(List<Event> events) {
+            this.events = events;
+        }
+
+        @Override
+        protected void compute() {
+            result = allocate(events);
+        }
+    }
+
+}
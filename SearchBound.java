@@ -0,0 +1,29 @@
+package planner;
+
+/**
+ * <p>
+ * A test that the nodes of an AllocationSearch must pass to be extended,
+ * which an optimising search uses to prune the partial allocations that
+ * cannot be completed to an allocation better than the best one it has.
+ * </p>
+ *
+ * <p>
+ * The search asks the bound about every node it visits, including those at
+ * which every event is placed, so a bound should be cheap next to the work
+ * of exploring a node. It must not change the state of the search.
+ * </p>
+ */
+public interface SearchBound {
+
+    /**
+     * Returns true if the current partial allocation of the given search may
+     * still be completed to an allocation worth finding, and false if the
+     * search should backtrack.
+     *
+     * @param search
+     *            the search whose current node is being checked
+     * @return false if no completion of the node is worth finding
+     */
+    boolean admits(AllocationSearch search);
+
+}
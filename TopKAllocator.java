@@ -0,0 +1,422 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Provides methods for finding the k best safe allocations of events to
+ * venues, rather than one arbitrary safe allocation or all of them.
+ * </p>
+ *
+ * <p>
+ * When allocations are ranked by the sum of a PlacementScore over their
+ * placements, the best k are found by branch-and-bound on an AllocationSearch
+ * that enumerates the safe allocations, placing the events largest first. The
+ * bound comes from the assignment of the events to distinct venues that they
+ * alone fit at with the greatest score, which ignores only how the traffic of
+ * the events adds up on the corridors, and is found once, by the Hungarian
+ * method. Its dual gives each placement a reduced cost: how far below the
+ * assignment's score every allocation that makes the placement must fall. So
+ * the assignment's score less the reduced costs of the placements made so far
+ * bounds every completion of a partial allocation, and is recomputed in
+ * linear time per node. Each event is tried first at the venue the assignment
+ * gives it, so the first allocation found is the assignment itself whenever it
+ * is safe, and then at its other venues in ascending order of reduced cost.
+ * The k best allocations found so far are kept in a bounded heap whose head is
+ * the k-th best. Once the heap is full, a branch is pruned when its bound
+ * cannot beat the k-th best.
+ * </p>
+ *
+ * <p>
+ * Allocations can also be ranked by an arbitrary comparator. Nothing is known
+ * about how a comparator ranks the completions of a partial allocation, so no
+ * branch can be pruned: every safe allocation is enumerated lazily (see
+ * Allocator.safeAllocationIterator), but only the best k are kept.
+ * </p>
+ */
+public class TopKAllocator {
+
+    // the problem being searched and the number of allocations to keep
+    private final CompiledProblem problem;
+    private final int k;
+    // score[e][v] is the score of placing event e at venue v, and reduced[e][v]
+    // is the reduced cost of the placement, for the venues v that event e
+    // alone fits at (see fitsAlone)
+    private final long[][] score;
+    private final long[][] reduced;
+    // the score of the best assignment of the events to distinct venues that
+    // they alone fit at, which bounds the score of every safe allocation
+    private long assignmentScore;
+    // slack[v] is minus the dual potential of venue v: how much of
+    // assignmentScore is owed to venue v being used, and bySlack lists the
+    // venues in descending order of slack
+    private final long[] slack;
+    private final int[] bySlack;
+    // matched[e] is the venue that event e is placed at by the assignment
+    private final int[] matched;
+    // the best allocations found so far, worst first
+    private final PriorityQueue<Ranked> best;
+    // the number of allocations that have been offered to best
+    private long found;
+
+    /*
+     * invariant: best.size() <= k, reduced[e][v] >= 0 and slack[v] >= 0, and
+     * for every safe allocation that makes the placements of a partial
+     * allocation, its score is at most assignmentScore less the sum of the
+     * reduced costs of those placements
+     */
+
+    /**
+     * Returns the k best safe allocations of events to venues, ranked by the
+     * sum of the given score over their placements, best first. Fewer are
+     * returned if there are fewer than k safe allocations, and allocations
+     * with the same score are returned in the order they were found.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a list of min(k, n) distinct safe allocations of events
+     *         to venues, where n is the number of safe allocations, in
+     *         descending order of score, such that no safe allocation that is
+     *         not in the list has a higher score than one that is.
+     * @throws NullPointerException
+     *             if score is null
+     * @throws IllegalArgumentException
+     *             if k is negative
+     */
+    public static List<Map<Event, Venue>> topK(List<Event> events,
+            List<Venue> venues, int k, PlacementScore score) {
+        if (score == null) {
+            throw new NullPointerException("The score cannot be null.");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException(
+                    "The number of allocations cannot be negative.");
+        }
+        CompiledProblem problem = new CompiledProblem(events, venues);
+        if (k == 0 || !new CapacityMatching(problem).isComplete()) {
+            // there is nothing to find
+            return new ArrayList<>();
+        }
+        return new TopKAllocator(problem, k, score).search();
+    }
+
+    /**
+     * Returns the k greatest safe allocations of events to venues in the
+     * order given by the comparator, greatest first. Fewer are returned if
+     * there are fewer than k safe allocations. Every safe allocation is
+     * enumerated, but at most k + 1 are held at once.
+     *
+     * @require events != null && venues != null && !events.contains(null) &&
+     *          !venues.contains(null) && events does not contain duplicate
+     *          events && venues does not contain duplicate venues.
+     * @ensure Returns a list of min(k, n) distinct safe allocations of events
+     *         to venues, where n is the number of safe allocations, in
+     *         descending order of comparator, such that no safe allocation
+     *         that is not in the list is greater than one that is.
+     * @throws NullPointerException
+     *             if comparator is null
+     * @throws IllegalArgumentException
+     *             if k is negative
+     */
+    public static List<Map<Event, Venue>> topKByComparator(List<Event> events,
+            List<Venue> venues, int k,
+            Comparator<? super Map<Event, Venue>> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException("The comparator cannot be null.");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException(
+                    "The number of allocations cannot be negative.");
+        }
+        List<Map<Event, Venue>> result = new ArrayList<>();
+        if (k == 0) {
+            return result;
+        }
+        // the greatest allocations so far, least first
+        PriorityQueue<Map<Event, Venue>> heap = new PriorityQueue<>(k,
+                comparator);
+        Iterator<Map<Event, Venue>> allocations = Allocator
+                .safeAllocationIterator(events, venues);
+        while (allocations.hasNext()) {
+            Map<Event, Venue> allocation = allocations.next();
+            if (heap.size() < k) {
+                heap.add(allocation);
+            } else if (comparator.compare(allocation, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(allocation);
+            }
+        }
+        result.addAll(heap);
+        Collections.sort(result, Collections.reverseOrder(comparator));
+        return result;
+    }
+
+    /**
+     * Creates a search for the k best safe allocations of the given problem
+     * under the given score.
+     */
+    private TopKAllocator(CompiledProblem problem, int k,
+            PlacementScore score) {
+        this.problem = problem;
+        this.k = k;
+        int eventCount = problem.getEventCount();
+        this.score = new long[eventCount][];
+        reduced = new long[eventCount][problem.getVenueCount()];
+        slack = new long[problem.getVenueCount()];
+        matched = new int[eventCount];
+        bySlack = new int[problem.getVenueCount()];
+        for (int e = 0; e < eventCount; e++) {
+            this.score[e] = new long[problem.getVenueCount()];
+            for (int v = 0; v < problem.getVenueCount(); v++) {
+                if (fitsAlone(e, v)) {
+                    this.score[e][v] = score.score(problem.getEvent(e),
+                            problem.getVenue(v));
+                }
+            }
+        }
+        best = new PriorityQueue<>(k, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked a, Ranked b) {
+                // the worst is the lowest score, and then the latest found
+                if (a.score != b.score) {
+                    return Long.compare(a.score, b.score);
+                }
+                return Long.compare(b.order, a.order);
+            }
+        });
+    }
+
+    /**
+     * Enumerates the safe allocations that could beat the k-th best one found
+     * so far on an AllocationSearch, and returns the best allocations found,
+     * best first.
+     */
+    private List<Map<Event, Venue>> search() {
+        List<Map<Event, Venue>> result = new ArrayList<>();
+        if (!assign()) {
+            // the events cannot even be matched to venues they fit at
+            return result;
+        }
+        AllocationSearch search = new AllocationSearch(problem);
+        search.setEventOrder(EventOrder.LARGEST_FIRST);
+        search.setVenueOrder(new VenueOrder() {
+            @Override
+            public int score(AllocationSearch search, int event, int venue) {
+                if (venue == matched[event]) {
+                    return -1;
+                }
+                return (int) Math.min(reduced[event][venue],
+                        Integer.MAX_VALUE);
+            }
+        });
+        search.setBound(new SearchBound() {
+            @Override
+            public boolean admits(AllocationSearch search) {
+                return best.size() < k || bound(search) > best.peek().score;
+            }
+        });
+        boolean complete = search.solve();
+        while (complete) {
+            offer(search);
+            complete = search.solveNext();
+        }
+        List<Ranked> ranked = new ArrayList<>(best);
+        Collections.sort(ranked, Collections.reverseOrder(best
+                .comparator()));
+        for (Ranked allocation : ranked) {
+            result.add(problem.toAllocation(allocation.assignment));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bound on the score of every safe allocation that makes the
+     * placements of the given search: assignmentScore less the reduced costs
+     * of the placements, and less the slack of the free venues that the
+     * unplaced events are too few to use. Only as many free venues as there
+     * are unplaced events can be used, so only the free venues with the most
+     * slack are counted; a complete allocation is bounded by its own score.
+     */
+    private long bound(AllocationSearch search) {
+        long bound = assignmentScore; // the bound so far
+        for (int e = 0; e < reduced.length; e++) {
+            int venue = search.getVenue(e);
+            if (venue >= 0) {
+                bound -= reduced[e][venue];
+            }
+        }
+        // the number of free venues that the unplaced events could still use
+        int usable = reduced.length - search.getPlacedCount();
+        for (int i = 0; i < bySlack.length && slack[bySlack[i]] > 0; i++) {
+            int venue = bySlack[i];
+            if (search.isFree(venue)) {
+                if (usable > 0) {
+                    usable--;
+                } else {
+                    bound -= slack[venue];
+                }
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Offers the current (complete) allocation of the given search to the
+     * heap of the best ones.
+     */
+    private void offer(AllocationSearch search) {
+        int[] assignment = search.getAssignment();
+        long total = 0; // the score of the allocation
+        for (int e = 0; e < assignment.length; e++) {
+            total += score[e][assignment[e]];
+        }
+        Ranked allocation = new Ranked(total, assignment, found++);
+        if (best.size() < k) {
+            best.add(allocation);
+        } else if (total > best.peek().score) {
+            best.poll();
+            best.add(allocation);
+        }
+    }
+
+    /**
+     * Finds the assignment of the events to distinct venues that they alone
+     * fit at with the greatest score, by the Hungarian method for the
+     * assignment with the least cost, where the cost of a placement is minus
+     * its score. Sets assignmentScore to its score and reduced to the reduced
+     * costs of the dual potentials, or returns false if there is no such
+     * assignment.
+     *
+     * The events are added one at a time, each by a shortest augmenting path
+     * over the reduced costs, so it takes O(n^2 m) time for n events and m
+     * venues. Rows and columns are numbered from 1, with column 0 standing
+     * for the event being added.
+     */
+    private boolean assign() {
+        int n = problem.getEventCount();
+        int m = problem.getVenueCount();
+        final long infinity = Long.MAX_VALUE;
+        // the dual potentials of the events and venues; venue potentials
+        // never rise above 0, so a venue may be left unused
+        long[] eventPotential = new long[n + 1];
+        long[] venuePotential = new long[m + 1];
+        // match[j] is the event matched to venue j, or 0, and way[j] is the
+        // venue before j on the shortest path found to it
+        int[] match = new int[m + 1];
+        int[] way = new int[m + 1];
+        long[] distance = new long[m + 1];
+        boolean[] reached = new boolean[m + 1];
+        for (int i = 1; i <= n; i++) {
+            match[0] = i;
+            int j0 = 0; // the venue the path has reached
+            Arrays.fill(distance, infinity);
+            Arrays.fill(reached, false);
+            do {
+                reached[j0] = true;
+                int i0 = match[j0]; // the event matched to j0
+                long delta = infinity; // the least distance of any venue
+                int j1 = 0; // the venue with that distance
+                for (int j = 1; j <= m; j++) {
+                    if (reached[j]) {
+                        continue;
+                    }
+                    if (fitsAlone(i0 - 1, j - 1)) {
+                        long cost = -score[i0 - 1][j - 1] - eventPotential[i0]
+                                - venuePotential[j];
+                        if (cost < distance[j]) {
+                            distance[j] = cost;
+                            way[j] = j0;
+                        }
+                    }
+                    if (distance[j] < delta) {
+                        delta = distance[j];
+                        j1 = j;
+                    }
+                }
+                if (delta == infinity) {
+                    // no venue is left that the tree can reach
+                    return false;
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (reached[j]) {
+                        eventPotential[match[j]] += delta;
+                        venuePotential[j] -= delta;
+                    } else if (distance[j] != infinity) {
+                        distance[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (match[j0] != 0);
+            // flip the matching along the path
+            do {
+                int j1 = way[j0];
+                match[j0] = match[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+        long cost = 0; // the cost of the assignment
+        for (int j = 1; j <= m; j++) {
+            if (match[j] != 0) {
+                matched[match[j] - 1] = j - 1;
+                cost -= score[match[j] - 1][j - 1];
+            }
+        }
+        assignmentScore = -cost;
+        // sort the venues by slack, which is done once, so by insertion
+        for (int j = 0; j < m; j++) {
+            slack[j] = -venuePotential[j + 1];
+            int i = j; // where venue j goes in bySlack
+            for (; i > 0 && slack[bySlack[i - 1]] < slack[j]; i--) {
+                bySlack[i] = bySlack[i - 1];
+            }
+            bySlack[i] = j;
+        }
+        for (int e = 0; e < n; e++) {
+            for (int v = 0; v < m; v++) {
+                if (fitsAlone(e, v)) {
+                    reduced[e][v] = -score[e][v] - eventPotential[e + 1]
+                            - venuePotential[v + 1];
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given venue can host the given event and the
+     * traffic it would generate there alone fits under the capacity of every
+     * corridor.
+     */
+    private boolean fitsAlone(int event, int venue) {
+        int[] load = problem.loads(event, venue);
+        if (load == null) {
+            return false;
+        }
+        int[] corridors = problem.venueCorridors[venue];
+        for (int i = 0; i < corridors.length; i++) {
+            if (load[i] > problem.corridorCapacity[corridors[i]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A safe allocation found by the search, with its score and the order in
+     * which it was found.
+     */
+    private static class Ranked {
+
+        private final long score;
+        private final int[] assignment;
+        private final long order;
+
+        Ranked(long score, int[] assignment, long order) {
+            this.score = score;
+            this.assignment = assignment;
+            this.order = order;
+        }
+    }
+
+}
@@ -135,6 +135,24 @@ public class Traffic {
         return trafficMap.equals(other.trafficMap);
     }
 
+    /**
+     * <p>
+     * Returns a hash code for the traffic currently recorded by this object,
+     * that is consistent with sameTraffic: if this.sameTraffic(other) then
+     * this.trafficHashCode() == other.trafficHashCode().
+     * </p>
+     * 
+     * <p>
+     * The hash code is computed from the corridors with traffic and their
+     * amounts of traffic, without building the string representation.
+     * </p>
+     * 
+     * @return a hash code for the traffic in this object
+     */
+    public int trafficHashCode() {
+        return trafficMap.hashCode();
+    }
+
     /**
      * Returns true if the traffic on each corridor in this object is less than
      * or equal to the capacity of that corridor, and false otherwise.
@@ -224,6 +242,75 @@ public class Traffic {
         }
     }
 
+    /**
+     * <p>
+     * This method removes all of the traffic defined by parameter
+     * removedTraffic from this object. It is the inverse of addTraffic.
+     * </p>
+     * 
+     * <p>
+     * That is, for each traffic corridor c, this method updates the traffic on
+     * that corridor in this object by subtracting from it the traffic that
+     * parameter removedTraffic associates with c.
+     * </p>
+     * 
+     * <p>
+     * (Unless this == removedTraffic) this method must not modify the given
+     * parameter.
+     * </p>
+     * 
+     * @param removedTraffic
+     *            the traffic to be removed from this object
+     * @throws NullPointerException
+     *             if removedTraffic is null
+     * @throws InvalidTrafficException
+     *             if removing the traffic would result in a negative amount of
+     *             traffic on any corridor. (In that case this object is left
+     *             unchanged.)
+     */
+    public void removeTraffic(Traffic removedTraffic) {
+        for (Corridor corridor : removedTraffic.trafficMap.keySet()) {
+            if (getTraffic(corridor) < removedTraffic.getTraffic(corridor)) {
+                throw new InvalidTrafficException(
+                        "Cannot have a negative amount of traffic.");
+            }
+        }
+        // iterate over a copy in case this == removedTraffic
+        for (Corridor corridor : removedTraffic.getCorridorsWithTraffic()) {
+            updateTraffic(corridor, -removedTraffic.getTraffic(corridor));
+        }
+    }
+
+    /**
+     * <p>
+     * Returns true if the traffic in this object is within capacity on every
+     * corridor that has traffic in parameter changedTraffic, and false
+     * otherwise.
+     * </p>
+     * 
+     * <p>
+     * If this object was safe before changedTraffic was added to it, then this
+     * method returns the same result as isSafe(), but only looks at the
+     * corridors that changedTraffic touches.
+     * </p>
+     * 
+     * @param changedTraffic
+     *            the traffic whose corridors will be checked
+     * @return true if the traffic in this object on each corridor with traffic
+     *         in changedTraffic is less than or equal to the capacity of that
+     *         corridor, and false otherwise.
+     * @throws NullPointerException
+     *             if changedTraffic is null
+     */
+    public boolean isSafeOn(Traffic changedTraffic) {
+        for (Corridor corridor : changedTraffic.trafficMap.keySet()) {
+            if (getTraffic(corridor) > corridor.getCapacity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * <p>
      * The string representation is the concatenation of strings of the form
@@ -110,6 +110,17 @@ public class Venue {
         return capacity;
     }
 
+    /**
+     * Returns the traffic that would be generated by hosting an event of
+     * maximum size (i.e. of size capacity) at the venue.
+     * 
+     * @return a copy of the traffic generated by hosting an event of size
+     *         capacity at the venue
+     */
+    public Traffic getCapacityTraffic() {
+        return new Traffic(capacityTraffic);
+    }
+
     /**
      * Returns true if the size of the event is less than or equal to the
      * capacity of the venue, and false otherwise.
@@ -219,15 +230,15 @@ public class Venue {
          * We create a polynomial hash-code based on name and capacity and
          * capacityTraffic.
          * 
-         * We will cheat a bit here and use the fact that traffic objects that
-         * are the same according to the sameTraffic method will produce the
-         * same string representation. There might be neater ways to do this.
+         * Traffic objects that are the same according to the sameTraffic
+         * method have the same trafficHashCode, which is much cheaper than
+         * hashing their string representation.
          */
         final int prime = 31; // an odd base prime
         int result = 1; // the hash code under construction
         result = prime * result + name.hashCode();
         result = prime * result + capacity;
-        result = prime * result + (capacityTraffic.toString()).hashCode();
+        result = prime * result + capacityTraffic.trafficHashCode();
         return result;
     }
 
@@ -0,0 +1,144 @@
+package planner;
+
+import java.util.*;
+
+/**
+ * <p>
+ * The dominance partial order between the venues of a problem.
+ * </p>
+ *
+ * <p>
+ * Venue a dominates venue b if they are not equivalent (that is, they differ
+ * in capacity or capacity traffic), a has at least the capacity of b, and for
+ * an event of any size a generates at most as much traffic as b on every
+ * corridor. Since the traffic an event generates at a venue is its size times
+ * the venue's capacity traffic, divided by the venue's capacity, the last
+ * condition holds iff, for every corridor c,
+ * </p>
+ *
+ * <pre>
+ * a.getCapacityTraffic().getTraffic(c) * b.getCapacity()
+ *         &lt;= b.getCapacityTraffic().getTraffic(c) * a.getCapacity()
+ * </pre>
+ *
+ * <p>
+ * Any event at b could then move to a, if a were free, without making the
+ * traffic on any corridor worse. So some safe allocation, if there is one, uses
+ * every venue that dominates a venue it uses, and a search may reject any
+ * partial allocation that leaves more such venues free than it has events left
+ * to place (see AllocationSearch.setDominance).
+ * </p>
+ */
+public class VenueDominance {
+
+    // the number of venues
+    private final int venueCount;
+    // dominators[b] are the venues that dominate venue b, in increasing order
+    final int[][] dominators;
+
+    /*
+     * invariant: dominators[b] is sorted, and contains a iff a dominates b
+     */
+
+    /**
+     * Computes the dominance order between the given venues, whose ids are
+     * their positions in the list.
+     *
+     * @param venues
+     *            the venues to compare
+     * @throws NullPointerException
+     *             if venues is null or contains null
+     */
+    public VenueDominance(List<Venue> venues) {
+        this(new CompiledProblem(new ArrayList<Event>(), venues));
+    }
+
+    /**
+     * Computes the dominance order between the venues of the given problem.
+     *
+     * @param problem
+     *            the problem whose venues are compared
+     * @throws NullPointerException
+     *             if problem is null
+     */
+    public VenueDominance(CompiledProblem problem) {
+        venueCount = problem.getVenueCount();
+        dominators = new int[venueCount][];
+        int[] found = new int[venueCount]; // the dominators of one venue
+        for (int b = 0; b < venueCount; b++) {
+            int count = 0; // the number of dominators of b found so far
+            for (int a = 0; a < venueCount; a++) {
+                if (dominates(problem, a, b)) {
+                    found[count++] = a;
+                }
+            }
+            dominators[b] = Arrays.copyOf(found, count);
+        }
+    }
+
+    /**
+     * Returns the number of venues.
+     *
+     * @return the number of venues
+     */
+    public int getVenueCount() {
+        return venueCount;
+    }
+
+    /**
+     * Returns true if venue a dominates venue b, and false otherwise.
+     *
+     * @param a
+     *            the id of a venue
+     * @param b
+     *            the id of a venue
+     * @return true iff a dominates b
+     */
+    public boolean dominates(int a, int b) {
+        return Arrays.binarySearch(dominators[b], a) >= 0;
+    }
+
+    /**
+     * Returns the ids of the venues that dominate the given venue, in
+     * increasing order.
+     *
+     * @param venue
+     *            the id of a venue
+     * @return the venues that dominate venue
+     */
+    public int[] getDominators(int venue) {
+        return dominators[venue].clone();
+    }
+
+    /**
+     * Returns true if venue a of the given problem dominates its venue b.
+     * Venue a can only put traffic on corridors that b puts traffic on, so the
+     * (sorted) corridors of a are matched against those of b.
+     */
+    private static boolean dominates(CompiledProblem problem, int a, int b) {
+        long capacityA = problem.venueCapacity[a];
+        long capacityB = problem.venueCapacity[b];
+        if (capacityA < capacityB || problem.venueClass[a]
+                == problem.venueClass[b]) {
+            return false;
+        }
+        int[] corridorsA = problem.venueCorridors[a];
+        int[] corridorsB = problem.venueCorridors[b];
+        int k = 0; // the position in corridorsB
+        for (int c : corridorsA) {
+            while (k < corridorsB.length && corridorsB[k] < c) {
+                k++;
+            }
+            if (k == corridorsB.length || corridorsB[k] != c) {
+                // a puts traffic on a corridor that b does not
+                return false;
+            }
+            if (problem.venueTraffic[a][c] * capacityB
+                    > problem.venueTraffic[b][c] * capacityA) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
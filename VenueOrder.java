@@ -0,0 +1,75 @@
+package planner;
+
+/**
+ * <p>
+ * A heuristic that chooses the order in which an AllocationSearch tries the
+ * venues that an event could be placed at.
+ * </p>
+ *
+ * <p>
+ * The search tries the venues in ascending order of their scores, breaking
+ * ties in favour of the venue with the lowest id (i.e. the venue that comes
+ * first in the list the problem was compiled from). Only venues that the event
+ * could currently be placed at are scored.
+ * </p>
+ */
+public interface VenueOrder {
+
+    /**
+     * Tries venues in the order they were given in.
+     */
+    VenueOrder INPUT_ORDER = new VenueOrder() {
+        @Override
+        public int score(AllocationSearch search, int event, int venue) {
+            return 0;
+        }
+    };
+
+    /**
+     * Tries the smallest venues that can host the event first, keeping the
+     * large venues free for the large events.
+     */
+    VenueOrder BEST_FIT = new VenueOrder() {
+        @Override
+        public int score(AllocationSearch search, int event, int venue) {
+            return search.getProblem().getVenue(venue).getCapacity();
+        }
+    };
+
+    /**
+     * Tries the venues that leave the most headroom first: a venue's score is
+     * the highest utilisation (in parts per million of corridor capacity) that
+     * placing the event there would cause on any of its corridors.
+     */
+    VenueOrder LEAST_LOADED_FIRST = new VenueOrder() {
+        @Override
+        public int score(AllocationSearch search, int event, int venue) {
+            CompiledProblem problem = search.getProblem();
+            int[] corridors = problem.venueCorridors[venue];
+            int[] load = problem.loads(event, venue);
+            long peak = 0; // the highest utilisation found so far
+            for (int k = 0; k < corridors.length; k++) {
+                int capacity = problem.corridorCapacity[corridors[k]];
+                long traffic = (long) search.getLoad(corridors[k]) + load[k];
+                peak = Math.max(peak, traffic * 1000000 / capacity);
+            }
+            return (int) peak;
+        }
+    };
+
+    /**
+     * Returns the score of placing the given unplaced event at the given
+     * venue, in the current state of the search. Venues are tried in
+     * ascending order of their scores.
+     *
+     * @param search
+     *            the search that is ordering venues
+     * @param event
+     *            the id of an unplaced event
+     * @param venue
+     *            the id of a venue that the event could be placed at
+     * @return the score of the venue
+     */
+    int score(AllocationSearch search, int event, int venue);
+
+}